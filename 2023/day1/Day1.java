@@ -5,7 +5,20 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.Map;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
 
 /**
  * --- Part One ---
@@ -54,101 +67,670 @@ import java.util.Map;
  */
 public class Day1 {
 
-  public static void main(String[] args) throws FileNotFoundException, IOException {
-    String inputName =
-        "/input1.txt";
+  /** Nominal size of a file region scanned by a single fork-join task. */
+  private static final long CHUNK_SIZE = 16 << 20;
 
-    int v1 = getSumFirstStar(inputName);
-    int v2 = getSumSecondStar(inputName);
+  private static final WordAutomaton SPELLED_DIGITS =
+      new WordAutomaton("one", "two", "three", "four", "five", "six", "seven", "eight", "nine");
+  private static final WordAutomaton SPELLED_DIGITS_REVERSED =
+      new WordAutomaton("eno", "owt", "eerht", "ruof", "evif", "xis", "neves", "thgie", "enin");
 
-    System.out.println("RESULTS!!! " + v1 + " " + v2 );
+  /**
+   * Runs the line by line solution by default, other modes are picked by the first argument.
+   *
+   * <pre>
+   *  mapped [file] - sums both stars with {@link #getSumMapped(String, boolean)}
+   *  stream [file] - sums both stars with a parallel stream and {@link #toCalibration()}
+   *  follow [file] - prints totals of both stars whenever new lines are appended to the file
+   *  bench [length] - compares digit scanners with {@link #benchmarkDigitScan(int, int)}
+   * </pre>
+   */
+  public static void main(String[] args)
+      throws FileNotFoundException, IOException, InterruptedException {
+    String mode = args.length > 0 ? args[0] : "";
+    String inputName = args.length > 1 ? args[1] : "/input1.txt";
+
+    switch (mode) {
+      case "mapped":
+        System.out.println(
+            "RESULTS!!! " + getSumMapped(inputName, false) + " " + getSumMapped(inputName, true));
+        break;
+      case "stream":
+        try (Stream<String> lines = Files.lines(Path.of(inputName))) {
+          Calibration calibration = lines.parallel().collect(toCalibration());
+          System.out.println(
+              "RESULTS!!! " + calibration.firstStar + " " + calibration.secondStar);
+        }
+        break;
+      case "follow":
+        follow(inputName);
+        break;
+      case "bench":
+        benchmarkDigitScan(args.length > 1 ? Integer.parseInt(args[1]) : 4096, 1 << 14);
+        break;
+      default:
+        int v1 = getSumFirstStar(inputName);
+        int v2 = getSumSecondStar(inputName);
+
+        System.out.println("RESULTS!!! " + v1 + " " + v2);
+    }
   }
 
   private static int getSumFirstStar(String inputName) throws IOException, FileNotFoundException {
     int c = 0;
     try (BufferedReader bf = new BufferedReader(new FileReader(new File(inputName)))) {
       while (bf.ready()) {
-        char[] chars = bf.readLine().toCharArray();
-        char a = 'n', b = 'n';
-
-        for (int i = 0; i < chars.length; i++) {
-          if (chars[i] >= 48 && chars[i] <= 57) {
-            if (a == 'n') {
-              a = b = chars[i];
-            } else {
-              b = chars[i];
-            }
-          }
-        }
-
-        c += Integer.valueOf(a + "" + b);
+        c += getCalibrationValue(bf.readLine(), null, null);
       }
     }
     return c;
   }
 
+  /**
+   * Digits written with letters are matched by {@link #SPELLED_DIGITS} from the start of a line
+   * and by {@link #SPELLED_DIGITS_REVERSED} from its end, so overlapping words like "twone" or
+   * "eightwo" are recognized without rescanning the line.
+   */
   private static int getSumSecondStar(String inputName) throws IOException, FileNotFoundException {
-    Map<String, Integer> wtod =
-        Map.of(
-            "one", 1,
-            "two", 2,
-            "three", 3,
-            "four", 4,
-            "five", 5,
-            "six", 6,
-            "seven", 7,
-            "eight", 8,
-            "nine", 9);
-
     int c = 0;
     try (BufferedReader bf = new BufferedReader(new FileReader(new File(inputName)))) {
       while (bf.ready()) {
-        String line = bf.readLine();
-        int sStart = -1, sEnd = -1;
-        int ssNum = -1, seNum = -1;
-
-        int sInd, eInd;
-        for (Map.Entry<String, Integer> entry : wtod.entrySet()) {
-          sInd = line.indexOf(entry.getKey());
-          eInd = line.lastIndexOf(entry.getKey());
-
-          if ((sStart > sInd || sStart == -1) && sInd != -1) {
-            sStart = sInd;
-            ssNum = entry.getValue();
+        c += getCalibrationValue(bf.readLine(), SPELLED_DIGITS, SPELLED_DIGITS_REVERSED);
+      }
+    }
+    return c;
+  }
+
+  /**
+   * Scans the {@code line} forward from its start and backward from its end, each side stops at
+   * the first digit it meets, so the work depends on the distance to the digits rather than on the
+   * length of the line.
+   *
+   * @param words to match spelled digits from the start or null to match only numeric digits
+   * @param reversedWords to match reversed spelled digits from the end or null
+   * @return a two-digit calibration value or 0 if the line doesn't contain any digit
+   */
+  private static int getCalibrationValue(
+      CharSequence line, WordAutomaton words, WordAutomaton reversedWords) {
+    int first = getFirstDigit(line, words);
+    if (first == -1) {
+      return 0;
+    }
+
+    return first * 10 + getLastDigit(line, reversedWords);
+  }
+
+  private static int getFirstDigit(CharSequence line, WordAutomaton words) {
+    int state = 0;
+    for (int i = 0; i < line.length(); i++) {
+      char ch = line.charAt(i);
+      if (isDigit(ch)) {
+        return ch - '0';
+      }
+
+      if (words != null) {
+        state = words.next(state, ch);
+        if (words.digit(state) != -1) {
+          return words.digit(state);
+        }
+      }
+    }
+
+    return -1;
+  }
+
+  private static int getLastDigit(CharSequence line, WordAutomaton reversedWords) {
+    int state = 0;
+    for (int i = line.length() - 1; i >= 0; i--) {
+      char ch = line.charAt(i);
+      if (isDigit(ch)) {
+        return ch - '0';
+      }
+
+      if (reversedWords != null) {
+        state = reversedWords.next(state, ch);
+        if (reversedWords.digit(state) != -1) {
+          return reversedWords.digit(state);
+        }
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns a {@link Collector} that sums calibration values of both stars in a single traversal
+   * of the lines. It keeps a pair of sums per thread, so it can be used in parallel streams.
+   */
+  public static Collector<CharSequence, ?, Calibration> toCalibration() {
+    return Collector.of(
+        () -> new long[2],
+        (sums, line) -> {
+          sums[0] += getCalibrationValue(line, null, null);
+          sums[1] += getCalibrationValue(line, SPELLED_DIGITS, SPELLED_DIGITS_REVERSED);
+        },
+        Day1::combineSums,
+        sums -> new Calibration(sums[0], sums[1]),
+        Collector.Characteristics.UNORDERED);
+  }
+
+  /**
+   * Same as {@link #toCalibration()} for lines of ASCII bytes between the position and the limit
+   * of each buffer, the buffers themselves aren't modified. Buffers of any byte order are
+   * accepted, e.g. "abcd1efgh2ijklmnop" in a little-endian buffer still gives 12.
+   */
+  public static Collector<ByteBuffer, ?, Calibration> toCalibrationOfBytes() {
+    return Collector.of(
+        () -> new long[2],
+        (sums, line) -> {
+          int start = line.position(), end = line.limit();
+
+          int first = getFirstDigitSwar(line, start, end);
+          if (first != -1) {
+            sums[0] += first * 10 + getLastDigitSwar(line, start, end);
           }
-          if (sEnd < eInd) {
 
-            sEnd = eInd;
-            seNum = entry.getValue();
+          first = getFirstDigit(line, start, end, SPELLED_DIGITS);
+          if (first != -1) {
+            sums[1] += first * 10 + getLastDigit(line, start, end, SPELLED_DIGITS_REVERSED);
           }
+        },
+        Day1::combineSums,
+        sums -> new Calibration(sums[0], sums[1]),
+        Collector.Characteristics.UNORDERED);
+  }
+
+  private static long[] combineSums(long[] left, long[] right) {
+    left[0] += right[0];
+    left[1] += right[1];
+    return left;
+  }
+
+  /**
+   * Polls the file once a second and prints totals of both stars every time complete lines are
+   * appended to it, already processed lines are never read again.
+   */
+  private static void follow(String inputName) throws IOException, InterruptedException {
+    CalibrationFollower follower = new CalibrationFollower(Path.of(inputName));
+    long offset = -1;
+
+    while (true) {
+      follower.update();
+      if (follower.getOffset() != offset) {
+        offset = follower.getOffset();
+        System.out.println(
+            "RESULTS!!! " + follower.getFirstStar() + " " + follower.getSecondStar());
+      }
+
+      Thread.sleep(1000);
+    }
+  }
+
+  /**
+   * Maps the file into memory and sums calibration values of newline-aligned chunks on the common
+   * {@link ForkJoinPool}. Lines are scanned as raw ASCII bytes, so nothing is allocated per line.
+   *
+   * @param spelled whether digits written with letters count as digits (second star)
+   */
+  private static long getSumMapped(String inputName, boolean spelled) throws IOException {
+    try (FileChannel channel = FileChannel.open(Path.of(inputName), StandardOpenOption.READ)) {
+      long[] bounds = getChunkBounds(channel, CHUNK_SIZE);
+
+      return ForkJoinPool.commonPool()
+          .invoke(new CalibrationTask(channel, bounds, 0, bounds.length - 1, spelled));
+    }
+  }
+
+  /**
+   * Splits the file into chunks of roughly {@code chunkSize} bytes, every chunk but the last one
+   * ends right after a '\n'.
+   *
+   * @return positions where chunks start followed by the size of the file
+   */
+  private static long[] getChunkBounds(FileChannel channel, long chunkSize) throws IOException {
+    long size = channel.size();
+    long[] bounds = new long[(int) (size / chunkSize) + 2];
+    ByteBuffer buf = ByteBuffer.allocate(4096);
+
+    int count = 1;
+    long pos = chunkSize;
+    while (pos < size) {
+      long end = getNextLineStart(channel, pos, buf);
+      bounds[count++] = end;
+      pos = end + chunkSize;
+    }
+
+    if (bounds[count - 1] != size) {
+      bounds[count++] = size;
+    }
+
+    return Arrays.copyOf(bounds, count);
+  }
+
+  /** Returns a position right after the first '\n' at or after {@code pos} or the file size. */
+  private static long getNextLineStart(FileChannel channel, long pos, ByteBuffer buf)
+      throws IOException {
+    while (true) {
+      buf.clear();
+      int read = channel.read(buf, pos);
+      if (read == -1) {
+        return channel.size();
+      }
+
+      for (int i = 0; i < read; i++) {
+        if (buf.get(i) == '\n') {
+          return pos + i + 1;
+        }
+      }
+      pos += read;
+    }
+  }
+
+  /** Sums calibration values of every line in {@code buf} between 0 and its limit. */
+  private static long getSumOfChunk(
+      ByteBuffer buf, WordAutomaton words, WordAutomaton reversedWords) {
+    long sum = 0;
+    int limit = buf.limit();
+
+    int start = 0;
+    while (start < limit) {
+      int end = start;
+      while (end < limit && buf.get(end) != '\n') {
+        end++;
+      }
+
+      if (words == null) {
+        int first = getFirstDigitSwar(buf, start, end);
+        if (first != -1) {
+          sum += first * 10 + getLastDigitSwar(buf, start, end);
+        }
+      } else {
+        int first = getFirstDigit(buf, start, end, words);
+        if (first != -1) {
+          sum += first * 10 + getLastDigit(buf, start, end, reversedWords);
+        }
+      }
+      start = end + 1;
+    }
+
+    return sum;
+  }
+
+  /** Same as {@link #getFirstDigit(CharSequence, WordAutomaton)} for bytes from start to end. */
+  private static int getFirstDigit(ByteBuffer buf, int start, int end, WordAutomaton words) {
+    int state = 0;
+    for (int i = start; i < end; i++) {
+      byte ch = buf.get(i);
+      if (isDigit(ch)) {
+        return ch - '0';
+      }
+
+      if (words != null) {
+        state = words.next(state, ch);
+        if (words.digit(state) != -1) {
+          return words.digit(state);
+        }
+      }
+    }
+
+    return -1;
+  }
+
+  /** Same as {@link #getLastDigit(CharSequence, WordAutomaton)} for bytes from start to end. */
+  private static int getLastDigit(ByteBuffer buf, int start, int end, WordAutomaton reversedWords) {
+    int state = 0;
+    for (int i = end - 1; i >= start; i--) {
+      byte ch = buf.get(i);
+      if (isDigit(ch)) {
+        return ch - '0';
+      }
+
+      if (reversedWords != null) {
+        state = reversedWords.next(state, ch);
+        if (reversedWords.digit(state) != -1) {
+          return reversedWords.digit(state);
+        }
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Same as {@link #getFirstDigit(ByteBuffer, int, int, WordAutomaton)} without words, but checks
+   * 8 bytes at a time with {@link #getDigitMask(long)}. The buffer is read big-endian, so the
+   * first byte of a word is its most significant one, a buffer of another order is read through a
+   * big-endian duplicate.
+   */
+  private static int getFirstDigitSwar(ByteBuffer buf, int start, int end) {
+    if (buf.order() != ByteOrder.BIG_ENDIAN) {
+      buf = buf.duplicate();
+    }
+
+    int i = start;
+    for (; i + Long.BYTES <= end; i += Long.BYTES) {
+      long mask = getDigitMask(buf.getLong(i));
+      if (mask != 0) {
+        return buf.get(i + (Long.numberOfLeadingZeros(mask) >>> 3)) - '0';
+      }
+    }
+
+    for (; i < end; i++) {
+      if (isDigit(buf.get(i))) {
+        return buf.get(i) - '0';
+      }
+    }
+
+    return -1;
+  }
+
+  /** Same as {@link #getFirstDigitSwar(ByteBuffer, int, int)} but scans backward from the end. */
+  private static int getLastDigitSwar(ByteBuffer buf, int start, int end) {
+    if (buf.order() != ByteOrder.BIG_ENDIAN) {
+      buf = buf.duplicate();
+    }
+
+    int i = end;
+    for (; i - Long.BYTES >= start; i -= Long.BYTES) {
+      long mask = getDigitMask(buf.getLong(i - Long.BYTES));
+      if (mask != 0) {
+        return buf.get(i - 1 - (Long.numberOfTrailingZeros(mask) >>> 3)) - '0';
+      }
+    }
+
+    for (i--; i >= start; i--) {
+      if (isDigit(buf.get(i))) {
+        return buf.get(i) - '0';
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns a word with the high bit set in every byte of the {@code word} that is an ASCII digit.
+   * Bytes are cleared of their high bit first, so additions never carry into a neighbour byte,
+   * and non-ASCII bytes are excluded at the end.
+   */
+  private static long getDigitMask(long word) {
+    long low = word & 0x7F7F7F7F7F7F7F7FL;
+    long atLeastZero = low + 0x5050505050505050L; // 0x30 + 0x50 = 0x80
+    long aboveNine = low + 0x4646464646464646L; // 0x3A + 0x46 = 0x80
+
+    return atLeastZero & ~aboveNine & ~word & 0x8080808080808080L;
+  }
+
+  /**
+   * Compares the scalar digit scan of the first star against the SWAR one on {@code lines} lines
+   * of {@code length} random letters with a single digit in the middle of each line, so both
+   * scanners walk half of every line from each side.
+   */
+  private static void benchmarkDigitScan(int length, int lines) {
+    if (length < 1 || lines < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    Random random = new Random(42);
+    ByteBuffer buf = ByteBuffer.allocate(Math.multiplyExact(length + 1, lines));
+    for (int l = 0; l < lines; l++) {
+      for (int i = 0; i < length; i++) {
+        buf.put((byte) ('a' + random.nextInt(26)));
+      }
+      buf.put(buf.position() - length / 2 - 1, (byte) ('0' + random.nextInt(10)));
+      buf.put((byte) '\n');
+    }
+
+    for (int round = 0; round < 5; round++) {
+      long start = System.nanoTime();
+      long scalar = 0;
+      for (int l = 0; l < lines; l++) {
+        int from = l * (length + 1);
+        scalar +=
+            getFirstDigit(buf, from, from + length, null) * 10
+                + getLastDigit(buf, from, from + length, null);
+      }
+      long scalarTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      long swar = 0;
+      for (int l = 0; l < lines; l++) {
+        int from = l * (length + 1);
+        swar +=
+            getFirstDigitSwar(buf, from, from + length) * 10
+                + getLastDigitSwar(buf, from, from + length);
+      }
+      long swarTime = System.nanoTime() - start;
+
+      if (scalar != swar) {
+        throw new IllegalStateException("Scanners disagree: " + scalar + " != " + swar);
+      }
+
+      System.out.printf(
+          "round %d: scalar %.1f ns/line, swar %.1f ns/line, speedup %.2fx%n",
+          round,
+          (double) scalarTime / lines,
+          (double) swarTime / lines,
+          (double) scalarTime / swarTime);
+    }
+  }
+
+  private static boolean isDigit(int ch) {
+    return ch >= '0' && ch <= '9';
+  }
+
+  /**
+   * Sums calibration values of the chunks from {@code lo} to {@code hi}, splitting the range in
+   * halves until a single chunk is left, which is mapped and scanned.
+   */
+  private static class CalibrationTask extends RecursiveTask<Long> {
+    private static final long serialVersionUID = 1L;
+
+    private final transient FileChannel channel;
+    private final long[] bounds;
+    private final int lo, hi;
+    private final boolean spelled;
+
+    public CalibrationTask(FileChannel channel, long[] bounds, int lo, int hi, boolean spelled) {
+      this.channel = channel;
+      this.bounds = bounds;
+      this.lo = lo;
+      this.hi = hi;
+      this.spelled = spelled;
+    }
+
+    @Override
+    protected Long compute() {
+      if (hi - lo > 1) {
+        int mid = (lo + hi) >>> 1;
+        CalibrationTask left = new CalibrationTask(channel, bounds, lo, mid, spelled);
+        left.fork();
+
+        long right = new CalibrationTask(channel, bounds, mid, hi, spelled).compute();
+        return right + left.join();
+      }
+
+      if (hi == lo) {
+        return 0L;
+      }
+
+      try {
+        ByteBuffer buf =
+            channel.map(FileChannel.MapMode.READ_ONLY, bounds[lo], bounds[hi] - bounds[lo]);
+
+        return spelled
+            ? getSumOfChunk(buf, SPELLED_DIGITS, SPELLED_DIGITS_REVERSED)
+            : getSumOfChunk(buf, null, null);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /** Sums of calibration values for both stars. */
+  public static class Calibration {
+    public final long firstStar;
+    public final long secondStar;
+
+    public Calibration(long firstStar, long secondStar) {
+      this.firstStar = firstStar;
+      this.secondStar = secondStar;
+    }
+
+    @Override
+    public String toString() {
+      return "Calibration [firstStar=" + firstStar + ", secondStar=" + secondStar + "]";
+    }
+  }
+
+  /**
+   * Keeps running totals of both stars for a file that only grows. Every {@link #update()} reads
+   * the file from the end of the last complete line it has seen, so it costs only the bytes
+   * appended since then. A trailing line without '\n' is left for the next update.
+   */
+  private static class CalibrationFollower {
+    private final Path path;
+    private ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+
+    private long offset;
+    private long firstStar, secondStar;
+
+    public CalibrationFollower(Path path) {
+      this.path = Objects.requireNonNull(path);
+    }
+
+    public void update() throws IOException {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        long size = channel.size();
+        if (size < offset) {
+          throw new IllegalStateException("The file was truncated");
         }
 
-        char[] chars = line.toCharArray();
-        int chStart = -1, chEnd = -1;
+        while (offset < size) {
+          buf.clear();
+          int read = channel.read(buf, offset);
+          if (read <= 0) {
+            return;
+          }
+
+          int end = read;
+          while (end > 0 && buf.get(end - 1) != '\n') {
+            end--;
+          }
 
-        for (int i = 0; i < chars.length; i++) {
-          if (chars[i] >= 48 && chars[i] <= 57) {
-            if (chStart == -1) {
-              chStart = chEnd = i;
-            } else {
-              chEnd = i;
+          if (end == 0) {
+            if (offset + read >= size) {
+              return; // the last line isn't complete yet
             }
+            // a line is longer than the buffer
+            buf = ByteBuffer.allocate(Math.multiplyExact(buf.capacity(), 2));
+            continue;
           }
+
+          buf.limit(end);
+          firstStar += getSumOfChunk(buf, null, null);
+          secondStar += getSumOfChunk(buf, SPELLED_DIGITS, SPELLED_DIGITS_REVERSED);
+          offset += end;
         }
+      }
+    }
+
+    /** Returns a position right after the last processed line. */
+    public long getOffset() {
+      return offset;
+    }
 
-        int sNum = ssNum;
-        if (sStart == -1 || (sStart != -1 && chStart != -1 && sStart > chStart)) {
-          sNum = Character.getNumericValue(chars[chStart]);
+    public long getFirstStar() {
+      return firstStar;
+    }
+
+    public long getSecondStar() {
+      return secondStar;
+    }
+  }
+
+  /**
+   * Aho-Corasick automaton over ASCII chars compiled into a dense transition table. The word at
+   * index {@code i} spells the digit {@code i + 1}.
+   *
+   * <p>Any char that can't continue a word (including digits) leads back to the root state {@code
+   * 0}, so the caller can feed every char of a line without resetting the state.
+   */
+  private static class WordAutomaton {
+    private static final int ALPHABET = 128;
+
+    private final int[] transitions;
+    private final int[] digits;
+
+    public WordAutomaton(String... words) {
+      Objects.requireNonNull(words);
+
+      int maxStates = 1;
+      for (String word : words) {
+        if (word.isEmpty()) {
+          throw new IllegalArgumentException("Word can't be empty");
         }
+        maxStates += word.length();
+      }
 
-        int eNum = seNum;
-        if (sEnd == -1 || (eNum != -1 && chEnd != -1 && sEnd < chEnd)) {
-          eNum = Character.getNumericValue(chars[chEnd]);
+      int[] trans = new int[maxStates * ALPHABET];
+      int[] dig = new int[maxStates];
+      Arrays.fill(dig, -1);
+
+      // build a trie, state 0 is a root and can't be a child, so 0 means "no edge"
+      int states = 1;
+      for (int i = 0; i < words.length; i++) {
+        int s = 0;
+        for (char ch : words[i].toCharArray()) {
+          if (ch >= ALPHABET) {
+            throw new IllegalArgumentException("Only ASCII words are supported");
+          }
+          if (trans[s * ALPHABET + ch] == 0) {
+            trans[s * ALPHABET + ch] = states++;
+          }
+          s = trans[s * ALPHABET + ch];
         }
+        dig[s] = i + 1;
+      }
 
-        c += Integer.valueOf(sNum + "" + eNum);
+      // turn the trie into a DFA following failure links in BFS order
+      int[] fail = new int[states];
+      int[] queue = new int[states];
+      int head = 0, tail = 0;
+      for (int ch = 0; ch < ALPHABET; ch++) {
+        if (trans[ch] != 0) {
+          queue[tail++] = trans[ch];
+        }
       }
+
+      while (head < tail) {
+        int s = queue[head++];
+        if (dig[s] == -1) {
+          dig[s] = dig[fail[s]];
+        }
+
+        for (int ch = 0; ch < ALPHABET; ch++) {
+          int t = trans[s * ALPHABET + ch];
+          int f = trans[fail[s] * ALPHABET + ch];
+          if (t != 0) {
+            fail[t] = f;
+            queue[tail++] = t;
+          } else {
+            trans[s * ALPHABET + ch] = f;
+          }
+        }
+      }
+
+      this.transitions = Arrays.copyOf(trans, states * ALPHABET);
+      this.digits = Arrays.copyOf(dig, states);
+    }
+
+    public int next(int state, int ch) {
+      return ch < 0 || ch >= ALPHABET ? 0 : transitions[state * ALPHABET + ch];
+    }
+
+    /** Returns a digit spelled by the word that ends in the {@code state} or -1. */
+    public int digit(int state) {
+      return digits[state];
     }
-    return c;
   }
 }
@@ -1,9 +1,13 @@
 package day2;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.stream.IntStream;
 
 /** 
  * https://adventofcode.com/2023/day/2 
@@ -53,6 +57,9 @@ import java.io.IOException;
  **/
 public class Day2 {
 
+  /** Indices of the colors every {@link ColorDictionary} starts with. */
+  private static final int RED = 0, GREEN = 1, BLUE = 2;
+
   /*read line
     FIRST START
     get total num of cubes per color () {
@@ -67,91 +74,593 @@ public class Day2 {
     String testName =  "/test1.txt";
     String inputName = "/input1.txt";
 
+    if (args.length > 0 && args[0].equals("sweep")) {
+      printSweep(args.length > 1 ? args[1] : inputName, 20);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("powers")) {
+      PowerStats stats =
+          getPowerStats(
+              args.length > 1 ? args[1] : inputName,
+              args.length > 2 ? Integer.parseInt(args[2]) : 10);
+      System.out.println(stats);
+      return;
+    }
+
     System.out.println(getSumSecondStar(inputName));
   }
 
+  /**
+   * Prints the sum of ids of possible games for every bag with 0 to {@code maxCubes} cubes of each
+   * color, the file is parsed only once.
+   */
+  private static void printSweep(String inputName, int maxCubes) throws IOException {
+    GameTable table = GameTable.of(Files.readAllBytes(Path.of(inputName)));
+
+    int side = maxCubes + 1;
+    int[][] bags = new int[side * side * side][];
+    for (int i = 0; i < bags.length; i++) {
+      bags[i] = new int[table.colors.size()];
+      bags[i][RED] = i / side / side;
+      bags[i][GREEN] = i / side % side;
+      bags[i][BLUE] = i % side;
+    }
+
+    long[] sums = table.getSumsOfPossibleIds(bags);
+    for (int i = 0; i < bags.length; i++) {
+      System.out.println(Arrays.toString(bags[i]) + " " + sums[i]);
+    }
+  }
+
   /**
    * FIRST STAR.
    *
-   *  set max vars for blue, red, green
+   *  parse all the games into a {@link GameTable}
    *
-   *  read line 
-   *  split into \d{1,}\s\(blue|red|green) pairs
-   *  if(value of the pair > maxVar) 
-   *    add id to counter 
-   *  else continue
-   *  repeate
+   *  set max vars for red, green, blue and 0 for any other color
+   *  sum ids of the games where no max of the game > maxVar
    */
   private static int getSumFirstStar(String inputName) throws IOException, FileNotFoundException {
-    int counter = 0;
-    int bMax = 14, rMax = 12, gMax = 13;
-    try (BufferedReader bf = new BufferedReader(new FileReader(inputName))) {
-
-      While:
-      while (bf.ready()) {
-        String line = bf.readLine();
-        String[] pairs = line.split(":\\s|,\\s|;\\s|(\\s\\d+\\[b,r,w])");
-
-        for (int i = 1; i < pairs.length; i++) {
-          String[] pair = pairs[i].split("\\s");
-          int num = Integer.parseInt(pair[0]);
-
-          if (pair[1].equals("blue") && num > bMax) {
-            continue While;
-          } else if (pair[1].equals("red") && num > rMax) {
-            continue While;
-          } else if (pair[1].equals("green") && num > gMax) {
-            continue While;
-          }
-        }
+    GameTable table = GameTable.of(Files.readAllBytes(Path.of(inputName)));
 
-        counter += Integer.valueOf(pairs[0].split("\\s")[1]);
-      }
-    }
-    return counter;
+    int[] bag = new int[table.colors.size()];
+    bag[RED] = 12;
+    bag[GREEN] = 13;
+    bag[BLUE] = 14;
+
+    return Math.toIntExact(table.getSumOfPossibleIds(bag));
   }
 
   /**
    * SECOND STAR.
    *
-   * set max vars for blue, red, green
+   * see {@link #getPowerStats(String, int)}
+   */
+  private static int getSumSecondStar(String inputName) throws IOException, FileNotFoundException {
+    return Math.toIntExact(getPowerStats(inputName, 0).sum);
+  }
+
+  /**
+   * Splits the file into newline-aligned chunks and parses them in parallel, every thread adds
+   * powers of its games to its own {@link PowerStats}, which are merged at the end.
    *
-   * read line 
-   * split into \d{1,}\s\(blue|red|green) pairs
-   * if(value of the pair > maxVar) 
-   *  set val as a maxVar
-   * 
+   * <p>The power of a game is the product of its max number of red, green and blue cubes.
    *
-   * repeate
+   * @param k number of the most powerful games to keep
+   */
+  private static PowerStats getPowerStats(String inputName, int k) throws IOException {
+    byte[] bytes = Files.readAllBytes(Path.of(inputName));
+    int[] bounds = getChunkBounds(bytes, 4 * Runtime.getRuntime().availableProcessors());
+
+    return IntStream.range(0, bounds.length - 1)
+        .parallel()
+        .collect(
+            () -> new PowerStats(k),
+            (stats, chunk) -> {
+              GameParser parser =
+                  new GameParser(bytes, bounds[chunk], bounds[chunk + 1], new ColorDictionary());
+
+              while (parser.next()) {
+                long power =
+                    Math.multiplyExact(
+                        (long) parser.maxes[RED] * parser.maxes[GREEN], parser.maxes[BLUE]);
+                stats.add(parser.gameId, power);
+              }
+            },
+            PowerStats::merge);
+  }
+
+  /**
+   * Splits {@code bytes} into about {@code chunks} parts, every part but the last one ends right
+   * after a '\n'.
    *
+   * @return indices where parts start followed by the length of the bytes
    */
-  private static int getSumSecondStar(String inputName) throws IOException, FileNotFoundException {
-    int counter = 0;
-    try (BufferedReader bf = new BufferedReader(new FileReader(inputName))) {
-
-      while (bf.ready()) {
-        String line = bf.readLine();
-        System.out.println(line);
-
-        String[] pairs = line.split(":\\s|,\\s|;\\s|(\\s\\d+\\[b,r,w])");
-
-        int bMax = 0, rMax = 0, gMax = 0;
-        for (int i = 1; i < pairs.length; i++) {
-          String[] pair = pairs[i].split("\\s");
-          int num = Integer.parseInt(pair[0]);
-
-          if (pair[1].equals("blue") && num > bMax) {
-            bMax = num;
-          } else if (pair[1].equals("red") && num > rMax) {
-            rMax = num;
-          } else if (pair[1].equals("green") && num > gMax) {
-            gMax = num;
+  private static int[] getChunkBounds(byte[] bytes, int chunks) {
+    int[] bounds = new int[chunks + 1];
+    int count = 1;
+
+    int step = Math.max(1, bytes.length / chunks);
+    for (int pos = step; pos < bytes.length && count < chunks; pos += step) {
+      while (pos < bytes.length && bytes[pos - 1] != '\n') {
+        pos++;
+      }
+      if (pos < bytes.length && pos > bounds[count - 1]) {
+        bounds[count++] = pos;
+      }
+    }
+    bounds[count++] = bytes.length;
+
+    return Arrays.copyOf(bounds, count);
+  }
+
+  /**
+   * Sum of game powers together with the {@code k} most powerful games and a histogram of powers
+   * by their bit length, i.e. bucket {@code b} counts powers from {@code 2^(b-1)} to {@code 2^b -
+   * 1} and bucket 0 counts zero powers.
+   */
+  private static class PowerStats {
+    long sum;
+    final long[] histogram = new long[Long.SIZE];
+
+    /** min-heap of the most powerful games, the weakest of them is on the top */
+    private final long[] topPowers;
+    private final int[] topIds;
+    private int topSize;
+
+    public PowerStats(int k) {
+      if (k < 0) {
+        throw new IllegalArgumentException("k can't be negative");
+      }
+
+      this.topPowers = new long[k];
+      this.topIds = new int[k];
+    }
+
+    public void add(int gameId, long power) {
+      sum = Math.addExact(sum, power);
+      histogram[Long.SIZE - Long.numberOfLeadingZeros(power)]++;
+      offer(gameId, power);
+    }
+
+    public PowerStats merge(PowerStats other) {
+      sum = Math.addExact(sum, other.sum);
+      for (int i = 0; i < histogram.length; i++) {
+        histogram[i] += other.histogram[i];
+      }
+
+      for (int i = 0; i < other.topSize; i++) {
+        offer(other.topIds[i], other.topPowers[i]);
+      }
+      return this;
+    }
+
+    /** Returns {id, power} pairs of the most powerful games, the most powerful first. */
+    public long[][] getTop() {
+      long[][] top = new long[topSize][];
+      for (int i = 0; i < topSize; i++) {
+        top[i] = new long[] {topIds[i], topPowers[i]};
+      }
+      Arrays.sort(
+          top, (a, b) -> a[1] != b[1] ? Long.compare(b[1], a[1]) : Long.compare(a[0], b[0]));
+      return top;
+    }
+
+    private void offer(int gameId, long power) {
+      if (topSize < topPowers.length) {
+        topPowers[topSize] = power;
+        topIds[topSize] = gameId;
+        siftUp(topSize++);
+      } else if (topSize > 0 && power > topPowers[0]) {
+        topPowers[0] = power;
+        topIds[0] = gameId;
+        siftDown(0);
+      }
+    }
+
+    private void siftUp(int i) {
+      while (i > 0 && topPowers[(i - 1) / 2] > topPowers[i]) {
+        swap(i, (i - 1) / 2);
+        i = (i - 1) / 2;
+      }
+    }
+
+    private void siftDown(int i) {
+      while (true) {
+        int smallest = i;
+        int left = 2 * i + 1, right = left + 1;
+        if (left < topSize && topPowers[left] < topPowers[smallest]) {
+          smallest = left;
+        }
+        if (right < topSize && topPowers[right] < topPowers[smallest]) {
+          smallest = right;
+        }
+        if (smallest == i) {
+          return;
+        }
+
+        swap(i, smallest);
+        i = smallest;
+      }
+    }
+
+    private void swap(int i, int j) {
+      long power = topPowers[i];
+      topPowers[i] = topPowers[j];
+      topPowers[j] = power;
+
+      int id = topIds[i];
+      topIds[i] = topIds[j];
+      topIds[j] = id;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder("PowerStats [sum=" + sum + ", top=");
+      for (long[] game : getTop()) {
+        sb.append("\n  Game ").append(game[0]).append(": ").append(game[1]);
+      }
+
+      sb.append(",\n histogram=");
+      for (int b = 0; b < histogram.length; b++) {
+        if (histogram[b] != 0) {
+          long from = b == 0 ? 0 : 1L << (b - 1);
+          sb.append("\n  [").append(from).append(", ").append(b == 0 ? 0 : 2 * from - 1);
+          sb.append("]: ").append(histogram[b]);
+        }
+      }
+      return sb.append("]").toString();
+    }
+  }
+
+  /**
+   * Columnar store of per-game max number of cubes of each color, built once from the parsed
+   * games to answer "which games are possible with the bag" queries without parsing again.
+   *
+   * <p>For every color the games are also kept sorted by their max of that color. A query binary
+   * searches each color for the number of games that fit into the bag by that color alone, then
+   * checks the remaining colors only for the games of the most selective one.
+   */
+  private static class GameTable {
+    final int size;
+    final int[] ids;
+    final ColorDictionary colors;
+    /** maxes[color][game] */
+    final int[][] maxes;
+
+    /** orders[color] - indices of games sorted by their max of the color */
+    private final int[][] orders;
+    /** sortedMaxes[color][i] == maxes[color][orders[color][i]] */
+    private final int[][] sortedMaxes;
+
+    private GameTable(int size, int[] ids, ColorDictionary colors, int[][] maxes) {
+      this.size = size;
+      this.ids = ids;
+      this.colors = colors;
+      this.maxes = maxes;
+      this.orders = new int[maxes.length][size];
+      this.sortedMaxes = new int[maxes.length][size];
+
+      long[] keys = new long[size];
+      for (int color = 0; color < maxes.length; color++) {
+        for (int game = 0; game < size; game++) {
+          keys[game] = (long) maxes[color][game] << 32 | game;
+        }
+        Arrays.sort(keys);
+
+        for (int i = 0; i < size; i++) {
+          orders[color][i] = (int) keys[i];
+          sortedMaxes[color][i] = (int) (keys[i] >>> 32);
+        }
+      }
+    }
+
+    public static GameTable of(byte[] bytes) {
+      ColorDictionary colors = new ColorDictionary();
+      GameParser parser = new GameParser(bytes, colors);
+
+      int size = 0;
+      int[] ids = new int[16];
+      int[][] maxes = new int[colors.size()][16];
+      while (parser.next()) {
+        if (size == ids.length) {
+          ids = Arrays.copyOf(ids, size * 2);
+          for (int color = 0; color < maxes.length; color++) {
+            maxes[color] = Arrays.copyOf(maxes[color], size * 2);
+          }
+        }
+
+        // a new color was met, older games have 0 cubes of it
+        if (maxes.length < colors.size()) {
+          int oldColors = maxes.length;
+          maxes = Arrays.copyOf(maxes, colors.size());
+          for (int color = oldColors; color < maxes.length; color++) {
+            maxes[color] = new int[ids.length];
           }
         }
 
-        counter += bMax * rMax * gMax;
+        ids[size] = parser.gameId;
+        for (int color = 0; color < maxes.length; color++) {
+          maxes[color][size] = parser.maxes[color];
+        }
+        size++;
+      }
+
+      return new GameTable(size, ids, colors, maxes);
+    }
+
+    /** Returns a sum of ids of the games that are possible with the {@code bag}. */
+    public long getSumOfPossibleIds(int[] bag) {
+      long sum = 0;
+
+      int color = getMostSelectiveColor(bag);
+      int fit = getNumOfFittingGames(color, bag[color]);
+      for (int i = 0; i < fit; i++) {
+        int game = orders[color][i];
+        if (isPossible(game, bag)) {
+          sum += ids[game];
+        }
+      }
+
+      return sum;
+    }
+
+    /** Same as {@link #getSumOfPossibleIds(int[])} for each of the {@code bags}. */
+    public long[] getSumsOfPossibleIds(int[][] bags) {
+      long[] sums = new long[bags.length];
+      for (int i = 0; i < bags.length; i++) {
+        sums[i] = getSumOfPossibleIds(bags[i]);
+      }
+      return sums;
+    }
+
+    private boolean isPossible(int game, int[] bag) {
+      for (int color = 0; color < maxes.length; color++) {
+        if (maxes[color][game] > bag[color]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private int getMostSelectiveColor(int[] bag) {
+      if (bag.length != maxes.length) {
+        throw new IllegalArgumentException("Bag must have " + maxes.length + " colors");
+      }
+
+      int best = 0;
+      int bestFit = Integer.MAX_VALUE;
+      for (int color = 0; color < maxes.length; color++) {
+        int fit = getNumOfFittingGames(color, bag[color]);
+        if (fit < bestFit) {
+          best = color;
+          bestFit = fit;
+        }
+      }
+      return best;
+    }
+
+    /** Returns the number of games with the max of the {@code color} that is <= {@code cubes}. */
+    private int getNumOfFittingGames(int color, int cubes) {
+      int[] sorted = sortedMaxes[color];
+      int lo = 0, hi = size;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (sorted[mid] <= cubes) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+  }
+
+  /**
+   * Hand written parser of game records like "Game 11: 3 blue, 4 red; 1 red, 2 green" over ASCII
+   * bytes. Each {@link #next()} call parses a single game and keeps only the max number of cubes
+   * per color in {@link #maxes}, so nothing is allocated per game.
+   *
+   * <p>Colors are interned by a {@link ColorDictionary}, so any color made of lowercase letters is
+   * accepted and {@link #maxes} grows along with the dictionary.
+   */
+  private static class GameParser {
+    private final byte[] bytes;
+    private final int end;
+    private int pos;
+    private final ColorDictionary colors;
+
+    /** Id of the last parsed game. */
+    int gameId;
+    /**
+     * Max number of cubes of each color shown in the last parsed game, indexed by the {@link
+     * ColorDictionary}. It may be longer than the dictionary, extra colors have 0 cubes.
+     */
+    int[] maxes;
+
+    public GameParser(byte[] bytes, ColorDictionary colors) {
+      this(bytes, 0, bytes.length, colors);
+    }
+
+    /** Parses games from {@code start} to {@code end}, where start is a beginning of a line. */
+    public GameParser(byte[] bytes, int start, int end, ColorDictionary colors) {
+      Objects.checkFromToIndex(start, end, bytes.length);
+
+      this.bytes = bytes;
+      this.pos = start;
+      this.end = end;
+      this.colors = Objects.requireNonNull(colors);
+      this.maxes = new int[colors.size()];
+    }
+
+    /**
+     * Parses the next game.
+     *
+     * @return false if there are no more games
+     * @throws IllegalArgumentException if the game record is malformed
+     */
+    public boolean next() {
+      while (pos < end && (bytes[pos] == '\n' || bytes[pos] == '\r')) {
+        pos++;
+      }
+      if (pos >= end) {
+        return false;
+      }
+
+      Arrays.fill(maxes, 0);
+
+      for (int i = 0; i < "Game".length(); i++) {
+        expect("Game".charAt(i));
+      }
+      skipSpaces();
+      gameId = readNumber();
+      expect(':');
+
+      while (pos < end && bytes[pos] != '\n') {
+        skipSpaces();
+        int count = readNumber();
+        skipSpaces();
+        int color = readColor();
+
+        if (color >= maxes.length) {
+          maxes = Arrays.copyOf(maxes, Math.max(colors.size(), maxes.length * 2));
+        }
+        if (count > maxes[color]) {
+          maxes[color] = count;
+        }
+
+        skipSpaces();
+        if (pos < end && (bytes[pos] == ',' || bytes[pos] == ';')) {
+          pos++;
+        }
+      }
+
+      return true;
+    }
+
+    private int readNumber() {
+      if (pos >= end || !isDigit(bytes[pos])) {
+        throw new IllegalArgumentException("Expected a number at " + pos);
+      }
+
+      int num = 0;
+      while (pos < end && isDigit(bytes[pos])) {
+        num = Math.addExact(Math.multiplyExact(num, 10), bytes[pos++] - '0');
+      }
+      return num;
+    }
+
+    private int readColor() {
+      int start = pos;
+      while (pos < end && bytes[pos] >= 'a' && bytes[pos] <= 'z') {
+        pos++;
+      }
+
+      if (start == pos) {
+        throw new IllegalArgumentException("Expected a color at " + start);
+      }
+
+      return colors.intern(bytes, start, pos);
+    }
+
+    private void skipSpaces() {
+      while (pos < end && (bytes[pos] == ' ' || bytes[pos] == '\r')) {
+        pos++;
+      }
+    }
+
+    private void expect(char ch) {
+      if (pos >= end || bytes[pos] != ch) {
+        throw new IllegalArgumentException("Expected '" + ch + "' at " + pos);
+      }
+      pos++;
+    }
+
+    private static boolean isDigit(byte b) {
+      return b >= '0' && b <= '9';
+    }
+  }
+
+  /**
+   * Interns color names into dense indices in the order they were first met, starting with red,
+   * green and blue. Lookups go straight from the bytes of the record through an open addressing
+   * table that is kept at most a quarter full, so a lookup is a hash of the name plus a single
+   * compare in practice, however many colors there are. Only a new color allocates.
+   */
+  private static class ColorDictionary {
+    private byte[][] names = new byte[8][];
+    private int[] hashes = new int[8];
+    private int size;
+
+    /** index of a color + 1 or 0 for an empty slot */
+    private int[] slots = new int[32];
+
+    public ColorDictionary() {
+      for (String name : new String[] {"red", "green", "blue"}) {
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        intern(bytes, 0, bytes.length);
+      }
+    }
+
+    /** Returns an index of the color spelled by bytes from {@code start} to {@code end}. */
+    public int intern(byte[] bytes, int start, int end) {
+      int hash = hash(bytes, start, end);
+      int mask = slots.length - 1;
+
+      for (int i = hash & mask; ; i = (i + 1) & mask) {
+        int slot = slots[i];
+        if (slot == 0) {
+          return add(Arrays.copyOfRange(bytes, start, end), hash);
+        }
+
+        byte[] name = names[slot - 1];
+        if (hashes[slot - 1] == hash && Arrays.equals(name, 0, name.length, bytes, start, end)) {
+          return slot - 1;
+        }
+      }
+    }
+
+    public int size() {
+      return size;
+    }
+
+    private int add(byte[] name, int hash) {
+      if (size == names.length) {
+        names = Arrays.copyOf(names, size * 2);
+        hashes = Arrays.copyOf(hashes, size * 2);
+      }
+      names[size] = name;
+      hashes[size] = hash;
+      size++;
+
+      if (size * 4 > slots.length) {
+        slots = new int[slots.length * 2];
+        for (int i = 0; i < size; i++) {
+          insert(i);
+        }
+      } else {
+        insert(size - 1);
+      }
+
+      return size - 1;
+    }
+
+    private void insert(int index) {
+      int mask = slots.length - 1;
+      int i = hashes[index] & mask;
+      while (slots[i] != 0) {
+        i = (i + 1) & mask;
+      }
+      slots[i] = index + 1;
+    }
+
+    /** FNV-1a hash with the high bits folded in, since only the low bits pick a slot. */
+    private static int hash(byte[] bytes, int start, int end) {
+      int hash = 0x811C9DC5;
+      for (int i = start; i < end; i++) {
+        hash = (hash ^ bytes[i]) * 0x01000193;
       }
+      return hash ^ (hash >>> 16);
     }
-    return counter;
   }
 }
@@ -4,10 +4,21 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /**
  * https://adventofcode.com/2023/day/3
@@ -76,220 +87,841 @@ public class Day3 {
   public static void main(String[] args) throws IOException {
     String path = "/";
 
+    if (args.length > 0 && args[0].equals("parallel")) {
+      Schematic schematic = Schematic.of(args.length > 1 ? args[1] : path + "/input1.txt", true);
+      System.out.println(schematic.getPartSum());
+      System.out.println(schematic.getGearRatioSum());
+      return;
+    }
+    if (args.length > 0 && args[0].equals("adjacency")) {
+      Schematic schematic = Schematic.of(args.length > 1 ? args[1] : path + "/input1.txt");
+      int radius = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+      System.out.println(schematic.getPartSum(radius, args.length > 3 ? args[3] : null));
+      return;
+    }
+    if (args.length > 0 && args[0].equals("edit")) {
+      edit(args.length > 1 ? args[1] : path + "/input1.txt");
+      return;
+    }
+    if (args.length > 0 && args[0].equals("report")) {
+      Schematic schematic = Schematic.of(args.length > 1 ? args[1] : path + "/input1.txt");
+      System.out.println(schematic.getSymbolReport());
+      return;
+    }
+    if (args.length > 0 && args[0].equals("bench")) {
+      benchmarkDedupe(args.length > 1 ? Integer.parseInt(args[1]) : 2000);
+      return;
+    }
+
     System.out.println(getFirstStar(path + "/test1.txt"));
     System.out.println(getFirstStar(path + "/input1.txt"));
     System.out.println(getSecondStar(path + "/test1.txt"));
     System.out.println(getSecondStar(path + "/input1.txt"));
   }
 
-  private static int getFirstStar(String inputName) throws FileNotFoundException, IOException {
-    Set<Integer> nums = new HashSet<>();
-    try (BufferedReader bf = new BufferedReader(new FileReader(inputName))) {
-      char[] prevLine = null;
-      char[] nextLine = bf.ready() ? bf.readLine().toCharArray() : null;
+  private static long getFirstStar(String inputName) throws FileNotFoundException, IOException {
+    return Schematic.of(inputName).getPartSum();
+  }
 
-      List<Integer> r = new ArrayList<>();
-      int y = 0;
+  private static long getSecondStar(String inputName) throws FileNotFoundException, IOException {
+    return Schematic.of(inputName).getGearRatioSum();
+  }
 
-      while (nextLine != null) {
-        char[] currLine = nextLine;
-        nextLine = bf.ready() ? bf.readLine().toCharArray() : null;
+  /**
+   * Reads edits like "row col char" from the standard input and prints both stars after each of
+   * them, the schematic is read from the file only once.
+   */
+  private static void edit(String inputName) throws IOException {
+    SchematicIndex index = new SchematicIndex(Schematic.of(inputName).cells);
+    System.out.println(index.getPartSum() + " " + index.getGearRatioSum());
+
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(System.in))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] edit = line.trim().split("\\s+");
+        if (edit.length != 3 || edit[2].length() != 1) {
+          System.out.println("Expected: row col char");
+          continue;
+        }
 
-        for (int i = 0; i < currLine.length; i++) {
-          char ch = currLine[i];
+        index.update(Integer.parseInt(edit[0]), Integer.parseInt(edit[1]), edit[2].charAt(0));
+        System.out.println(index.getPartSum() + " " + index.getGearRatioSum());
+      }
+    }
+  }
 
-          if (ch != '.' && (ch < 48 || ch > 57)) {
-            getAdjacentNums(y, i, prevLine, currLine, nextLine, nums).forEach(r::add);
+  /**
+   * Compares allocations of collecting part numbers with boxed collections ({@link HashSet} of ids
+   * to dedupe, {@link ArrayList} of part numbers) against {@link LongSet} and {@link IntList} on a
+   * random {@code side} x {@code side} schematic.
+   */
+  private static void benchmarkDedupe(int side) {
+    Random random = new Random(42);
+    char[][] cells = new char[side][side];
+    for (char[] row : cells) {
+      for (int x = 0; x < side; x++) {
+        int r = random.nextInt(20);
+        row[x] =
+            r < 4
+                ? (char) ('0' + random.nextInt(10))
+                : r == 4 ? "*#+$".charAt(random.nextInt(4)) : '.';
+      }
+    }
+    Schematic schematic = new Schematic(cells);
+
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    int[] adjacent = new int[6];
+
+    for (int round = 0; round < 5; round++) {
+      long bytes = threads.getCurrentThreadAllocatedBytes();
+      long time = System.nanoTime();
+
+      Set<Integer> boxedIds = new HashSet<>();
+      List<Integer> boxedParts = new ArrayList<>();
+      for (int y = 0; y < side; y++) {
+        for (int x = 0; x < side; x++) {
+          if (isSymbol(cells[y][x])) {
+            int count = schematic.getAdjacentNumbers(y, x, adjacent);
+            for (int i = 0; i < count; i++) {
+              if (boxedIds.add(adjacent[i])) {
+                boxedParts.add(schematic.values[adjacent[i]]);
+              }
+            }
           }
         }
+      }
+      long boxedSum = 0;
+      for (Integer part : boxedParts) {
+        boxedSum += part;
+      }
 
-        prevLine = currLine;
-        y++;
+      long boxedBytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+      long boxedTime = System.nanoTime() - time;
+      bytes = threads.getCurrentThreadAllocatedBytes();
+      time = System.nanoTime();
+
+      LongSet ids = new LongSet();
+      IntList parts = new IntList();
+      for (int y = 0; y < side; y++) {
+        for (int x = 0; x < side; x++) {
+          if (isSymbol(cells[y][x])) {
+            int count = schematic.getAdjacentNumbers(y, x, adjacent);
+            for (int i = 0; i < count; i++) {
+              if (ids.add(adjacent[i])) {
+                parts.add(schematic.values[adjacent[i]]);
+              }
+            }
+          }
+        }
       }
+      long sum = 0;
+      for (int i = 0; i < parts.size(); i++) {
+        sum += parts.get(i);
+      }
+
+      long primitiveBytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+      long primitiveTime = System.nanoTime() - time;
 
-      int v = 0;
-      for (Integer integer : r) {
-        v += integer;
+      if (sum != boxedSum || sum != schematic.getPartSum()) {
+        throw new IllegalStateException("Sums disagree: " + boxedSum + " != " + sum);
       }
 
-      return v;
+      System.out.printf(
+          "round %d: boxed %d KiB %d ms, primitive %d KiB %d ms%n",
+          round,
+          boxedBytes >> 10,
+          boxedTime / 1_000_000,
+          primitiveBytes >> 10,
+          primitiveTime / 1_000_000);
     }
   }
 
-  private static int getSecondStar(String inputName) throws FileNotFoundException, IOException {
-    try (BufferedReader bf = new BufferedReader(new FileReader(inputName))) {
-      char[] prevLine = null;
-      char[] nextLine = bf.ready() ? bf.readLine().toCharArray() : null;
+  private static boolean isDigit(char c) {
+    return c > 47 && c < 58;
+  }
+
+  private static boolean isSymbol(char c) {
+    return c != '.' && !isDigit(c);
+  }
 
-      int counter = 0;
-      while (nextLine != null) {
-        char[] currLine = nextLine;
-        nextLine = bf.ready() ? bf.readLine().toCharArray() : null;
+  /**
+   * Engine schematic where every digit cell is labeled with a dense id of the number it belongs to,
+   * so finding numbers adjacent to a symbol is a lookup of its 8 neighbours.
+   *
+   * <p>The part sum and the gear ratio sum are computed by a single traversal over the cells.
+   *
+   * <p>In parallel mode rows are split into horizontal bands processed on the common {@link
+   * ForkJoinPool}. A band labels and traverses only its own rows, but looks up labels of the row
+   * above and below it (halo rows) once all the bands are labeled. A number adjacent to symbols of
+   * two bands is marked as a part twice, yet it has one id and is summed only once.
+   */
+  private static class Schematic {
+    final int height, width;
+    final char[][] cells;
+
+    /** labels[y][x] - id of the number that covers the cell or -1 */
+    final int[][] labels;
+
+    /** number of labeled numbers, ids go from 0 to size - 1 */
+    final int size;
+
+    /** values[id], rows[id] - value and row of the number */
+    final int[] values, rows;
+    /** starts[id], ends[id] - columns of the first digit and right after the last digit */
+    final int[] starts, ends;
+
+    private final long partSum, gearRatioSum;
+
+    /** see {@link #getSymbolPrefixSums(String)} */
+    private final Map<String, int[][]> symbolPrefixSums = new HashMap<>();
+    private int[][] anySymbolPrefixSums;
+
+    public Schematic(char[][] cells) {
+      this(cells, false);
+    }
 
-        for (int i = 0; i < currLine.length; i++) {
-          char ch = currLine[i];
+    public Schematic(char[][] cells, boolean parallel) {
+      Objects.requireNonNull(cells);
 
-          if (ch != '.' && ch == '*') {
-            int r = getGearsMyltiplicaton(i, prevLine, currLine, nextLine);
-            if (r != -1) {
-              counter += r;
-            }
-          }
+      this.height = cells.length;
+      this.width = height == 0 ? 0 : cells[0].length;
+      for (char[] row : cells) {
+        if (row.length != width) {
+          throw new IllegalArgumentException("Rows of the schematic must have the same length");
         }
+      }
 
-        prevLine = currLine;
+      this.cells = cells;
+      this.labels = new int[height][width];
+
+      int bandRows =
+          parallel
+              ? Math.max(16, height / (4 * Runtime.getRuntime().availableProcessors()) + 1)
+              : Math.max(1, height);
+      int bands = (height + bandRows - 1) / bandRows;
+
+      // ids of a band start right after ids of the previous band
+      int[] firstIds = new int[bands + 1];
+      IntStream counts = IntStream.range(0, bands);
+      int[] bandSizes =
+          (parallel ? counts.parallel() : counts)
+              .map(b -> countNumbers(b * bandRows, Math.min(height, (b + 1) * bandRows)))
+              .toArray();
+      for (int b = 0; b < bands; b++) {
+        firstIds[b + 1] = firstIds[b] + bandSizes[b];
       }
 
-      return counter;
+      this.size = firstIds[bands];
+      this.values = new int[size];
+      this.rows = new int[size];
+      this.starts = new int[size];
+      this.ends = new int[size];
+
+      IntStream labeling = IntStream.range(0, bands);
+      (parallel ? labeling.parallel() : labeling)
+          .forEach(b -> label(b * bandRows, Math.min(height, (b + 1) * bandRows), firstIds[b]));
+
+      boolean[] isPart = new boolean[size];
+      IntStream summing = IntStream.range(0, bands);
+      this.gearRatioSum =
+          (parallel ? summing.parallel() : summing)
+              .mapToLong(b -> sum(b * bandRows, Math.min(height, (b + 1) * bandRows), isPart))
+              .sum();
+
+      IntStream ids = IntStream.range(0, size);
+      this.partSum =
+          (parallel ? ids.parallel() : ids)
+              .filter(id -> isPart[id])
+              .mapToLong(id -> values[id])
+              .sum();
     }
-  }
 
-  private static int getGearsMyltiplicaton(
-      int x, char[] prevLine, char[] currLine, char[] nextLine) {
-    if (currLine == null) {
-      throw new IllegalArgumentException();
+    public static Schematic of(String inputName) throws IOException {
+      return of(inputName, false);
+    }
+
+    public static Schematic of(String inputName, boolean parallel) throws IOException {
+      try (BufferedReader bf = new BufferedReader(new FileReader(inputName))) {
+        List<char[]> lines = new ArrayList<>();
+        while (bf.ready()) {
+          lines.add(bf.readLine().toCharArray());
+        }
+
+        return new Schematic(lines.toArray(new char[0][]), parallel);
+      }
     }
 
-    char[][] lines = {prevLine, currLine, nextLine};
-    int[] axis = {-1, 0, 1};
+    /** Returns a sum of the numbers adjacent to any symbol. */
+    public long getPartSum() {
+      return partSum;
+    }
+
+    /** Returns a sum of products of two numbers adjacent to a '*' with exactly two numbers. */
+    public long getGearRatioSum() {
+      return gearRatioSum;
+    }
 
-    int firstNum = -1;
-    int result = -1;
+    /**
+     * Returns a sum of the numbers that have a symbol within {@code radius} cells of any of their
+     * digits, diagonals included. With radius 1 and any symbol it's the same as {@link
+     * #getPartSum()}.
+     *
+     * <p>Each number is checked with a single rectangle query on a 2-D prefix sum of the symbols,
+     * so the cost doesn't depend on the radius.
+     *
+     * @param symbols that count, or null for any symbol
+     */
+    public long getPartSum(int radius, String symbols) {
+      if (radius < 0) {
+        throw new IllegalArgumentException("Radius can't be negative");
+      }
 
-    ForY:
-    for (int yDir : axis) {
-      if ((prevLine == null && yDir == -1) || (nextLine == null && yDir == 1)) {
-        continue;
+      int[][] prefix = getSymbolPrefixSums(symbols);
+      long sum = 0;
+      for (int id = 0; id < size; id++) {
+        int y0 = Math.max(0, rows[id] - radius);
+        int y1 = (int) Math.min(height, (long) rows[id] + radius + 1);
+        int x0 = Math.max(0, starts[id] - radius);
+        int x1 = (int) Math.min(width, (long) ends[id] + radius);
+
+        int symbolCount = prefix[y1][x1] - prefix[y0][x1] - prefix[y1][x0] + prefix[y0][x0];
+        if (symbolCount > 0) {
+          sum += values[id];
+        }
       }
 
-      for (int xDir : axis) {
-        int adY = yDir + 1;
-        int adX = xDir + x;
+      return sum;
+    }
 
-        if (isOutOfBounds(currLine, yDir, xDir, adY, adX)) {
-          continue;
+    /**
+     * Returns a table where {@code [y][x]} is the number of symbols in the rectangle from (0, 0) to
+     * (y - 1, x - 1). Tables are cached per class of symbols.
+     *
+     * @param symbols to count, or null for any symbol
+     */
+    private int[][] getSymbolPrefixSums(String symbols) {
+      if (symbols == null) {
+        if (anySymbolPrefixSums == null) {
+          anySymbolPrefixSums = countSymbols(null);
         }
+        return anySymbolPrefixSums;
+      }
+      return symbolPrefixSums.computeIfAbsent(symbols, this::countSymbols);
+    }
 
-        char ch = lines[adY][adX];
-        if (!isDigit(ch)) {
-          continue;
+    private int[][] countSymbols(String symbols) {
+      int[][] prefix = new int[height + 1][width + 1];
+      for (int y = 0; y < height; y++) {
+        int rowCount = 0;
+        for (int x = 0; x < width; x++) {
+          char ch = cells[y][x];
+          if (isSymbol(ch) && (symbols == null || symbols.indexOf(ch) != -1)) {
+            rowCount++;
+          }
+          prefix[y + 1][x + 1] = prefix[y][x + 1] + rowCount;
         }
+      }
+      return prefix;
+    }
 
-        if (result != -1) {
-          return -1;
+    /**
+     * Calls the {@code visitor} for every symbol cell with ids of the numbers adjacent to it, the
+     * list of ids is reused between calls.
+     */
+    public void forEachSymbol(SymbolVisitor visitor) {
+      IntList ids = new IntList();
+      int[] adjacent = new int[6];
+
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          if (!isSymbol(cells[y][x])) {
+            continue;
+          }
+
+          ids.clear();
+          int count = getAdjacentNumbers(y, x, adjacent);
+          for (int i = 0; i < count; i++) {
+            ids.add(adjacent[i]);
+          }
+
+          visitor.visit(y, x, cells[y][x], ids);
         }
+      }
+    }
 
-        int start = getStartOfNum(adX, lines[adY]);
-        int end = getEndOfNum(adX, lines[adY]);
+    /** Collects all the {@link SymbolReport} aggregates in a single pass over the symbols. */
+    public SymbolReport getSymbolReport() {
+      SymbolReport report = new SymbolReport();
+      forEachSymbol(
+          (y, x, symbol, ids) -> {
+            long sum = 0;
+            BigInteger product = BigInteger.ONE;
+            for (int i = 0; i < ids.size(); i++) {
+              int value = values[ids.get(i)];
+              sum += value;
+              product = product.multiply(BigInteger.valueOf(value));
+            }
+            report.add(symbol, ids.size(), sum, product);
+          });
 
-        int v = Integer.valueOf(String.valueOf(lines[adY], start, end - start));
+      return report;
+    }
 
-        if (firstNum == -1) {
-          firstNum = v;
-        } else {
-          result = firstNum * v;
+    /**
+     * Writes distinct ids of the numbers adjacent to the cell into {@code ids}, that should have
+     * room for at least 6 ids (2 above, 2 below and one on each side).
+     *
+     * @return the number of written ids
+     */
+    int getAdjacentNumbers(int y, int x, int[] ids) {
+      int count = 0;
+      for (int ay = Math.max(0, y - 1); ay <= Math.min(height - 1, y + 1); ay++) {
+        int prev = -1;
+        for (int ax = Math.max(0, x - 1); ax <= Math.min(width - 1, x + 1); ax++) {
+          int id = labels[ay][ax];
+          // ids of the same row are only repeated by neighbouring cells
+          if (id != -1 && id != prev) {
+            ids[count++] = id;
+          }
+          prev = id;
         }
+      }
 
-        // prevent checking the same number on the first and last lines on next loop.
-        if (end - 1 > adX && (adY == 0 || adY == 2)) {
-          continue ForY;
+      return count;
+    }
+
+    private int countNumbers(int fromRow, int toRow) {
+      int count = 0;
+      for (int y = fromRow; y < toRow; y++) {
+        for (int x = 0; x < width; x++) {
+          if (isDigit(cells[y][x]) && (x == 0 || !isDigit(cells[y][x - 1]))) {
+            count++;
+          }
+        }
+      }
+      return count;
+    }
+
+    /** Labels numbers of the rows giving them ids starting with {@code firstId}. */
+    private void label(int fromRow, int toRow, int firstId) {
+      int id = firstId;
+      for (int y = fromRow; y < toRow; y++) {
+        Arrays.fill(labels[y], -1);
+
+        for (int x = 0; x < width; x++) {
+          if (!isDigit(cells[y][x])) {
+            continue;
+          }
+
+          int value = 0;
+          starts[id] = x;
+          for (; x < width && isDigit(cells[y][x]); x++) {
+            value = Math.addExact(Math.multiplyExact(value, 10), cells[y][x] - '0');
+            labels[y][x] = id;
+          }
+
+          values[id] = value;
+          rows[id] = y;
+          ends[id] = x;
+          id++;
         }
       }
     }
 
-    return result;
+    /**
+     * Marks numbers adjacent to symbols of the rows as parts.
+     *
+     * @return a sum of gear ratios of the rows
+     */
+    private long sum(int fromRow, int toRow, boolean[] isPart) {
+      long gearRatioSum = 0;
+      int[] adjacent = new int[6];
+
+      for (int y = fromRow; y < toRow; y++) {
+        for (int x = 0; x < width; x++) {
+          char ch = cells[y][x];
+          if (!isSymbol(ch)) {
+            continue;
+          }
+
+          int count = getAdjacentNumbers(y, x, adjacent);
+          for (int i = 0; i < count; i++) {
+            isPart[adjacent[i]] = true;
+          }
+
+          if (ch == '*' && count == 2) {
+            gearRatioSum += (long) values[adjacent[0]] * values[adjacent[1]];
+          }
+        }
+      }
+
+      return gearRatioSum;
+    }
   }
 
-  private static List<Integer> getAdjacentNums(
-      int y, int x, char[] prevLine, char[] currLine, char[] nextLine, Set<Integer> savedNums) {
+  private interface SymbolVisitor {
+    /**
+     * @param ids of distinct numbers adjacent to the symbol, valid only during the call
+     */
+    void visit(int y, int x, char symbol, IntList ids);
+  }
 
-    if (currLine == null || savedNums == null) {
-      throw new IllegalArgumentException();
+  /**
+   * Totals of numbers adjacent to symbols per symbol type. For each symbol the report keeps how
+   * many of its cells have exactly {@code k} adjacent numbers and the sum of their products, so
+   * "gears" with any {@code k} come from the same pass. Products of up to six numbers don't fit
+   * into a long, so their sums are {@link BigInteger}s.
+   */
+  private static class SymbolReport {
+    /** 2 numbers above, 2 below and one on each side. */
+    private static final int MAX_ADJACENT = 6;
+
+    /** Totals per symbol, sorted by the symbol. */
+    private final Map<Character, Totals> totals = new TreeMap<>();
+
+    void add(char symbol, int count, long sum, BigInteger product) {
+      Totals t = totals.computeIfAbsent(symbol, s -> new Totals());
+
+      t.cellCounts[count]++;
+      t.productSums[count] = t.productSums[count].add(product);
+      t.sum = Math.addExact(t.sum, sum);
     }
 
-    char[][] lines = {prevLine, currLine, nextLine};
-    int[] axy = {-1, 0, 1};
+    /** Returns the number of the symbol's cells. */
+    public long getCellCount(char symbol) {
+      Totals t = totals.get(symbol);
+      long count = 0;
+      for (int k = 0; t != null && k <= MAX_ADJACENT; k++) {
+        count += t.cellCounts[k];
+      }
+      return count;
+    }
 
-    List<Integer> res = new ArrayList<>();
+    /** Returns the number of the symbol's cells with exactly {@code k} adjacent numbers. */
+    public long getCellCount(char symbol, int k) {
+      Totals t = totals.get(symbol);
+      return t == null || k < 0 || k > MAX_ADJACENT ? 0 : t.cellCounts[k];
+    }
 
-    ForY:
-    for (int yDir : axy) {
-      if ((prevLine == null && yDir == -1) || (nextLine == null && yDir == 1)) {
-        continue;
+    /** Returns the number of numbers adjacent to the symbol's cells, counted once per cell. */
+    public long getAdjacentCount(char symbol) {
+      Totals t = totals.get(symbol);
+      long count = 0;
+      for (int k = 1; t != null && k <= MAX_ADJACENT; k++) {
+        count += k * t.cellCounts[k];
       }
-      for (int xDir : axy) {
-        int adY = yDir + 1;
-        int adX = xDir + x;
+      return count;
+    }
 
-        if (isOutOfBounds(currLine, yDir, xDir, adY, adX)) {
-          continue;
+    /** Returns the sum of numbers adjacent to the symbol's cells, counted once per cell. */
+    public long getSum(char symbol) {
+      Totals t = totals.get(symbol);
+      return t == null ? 0 : t.sum;
+    }
+
+    /**
+     * Returns the sum of products of numbers adjacent to the symbol's cells with exactly {@code k}
+     * adjacent numbers. For '*' and k = 2 it's the sum of gear ratios.
+     */
+    public BigInteger getProductSum(char symbol, int k) {
+      Totals t = totals.get(symbol);
+      return t == null || k < 0 || k > MAX_ADJACENT ? BigInteger.ZERO : t.productSums[k];
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder("SymbolReport [");
+      for (Map.Entry<Character, Totals> entry : totals.entrySet()) {
+        char symbol = entry.getKey();
+        Totals t = entry.getValue();
+
+        sb.append("\n  '").append(symbol).append("': cells=").append(getCellCount(symbol));
+        sb.append(", adjacent=").append(getAdjacentCount(symbol));
+        sb.append(", sum=").append(t.sum);
+        for (int k = 1; k <= MAX_ADJACENT; k++) {
+          if (t.cellCounts[k] != 0) {
+            sb.append(", ").append(k).append(":").append(t.cellCounts[k]);
+            sb.append("/").append(t.productSums[k]);
+          }
         }
+      }
+      return sb.append("]").toString();
+    }
 
-        char c = lines[adY][adX];
-        if (!isDigit(c)) {
-          continue;
+    private static class Totals {
+      /** cellCounts[k] - number of the symbol's cells with exactly k adjacent numbers */
+      final long[] cellCounts = new long[MAX_ADJACENT + 1];
+      /** productSums[k] - sum of products of numbers adjacent to those cells */
+      final BigInteger[] productSums = new BigInteger[MAX_ADJACENT + 1];
+      /** sum of all the numbers adjacent to the symbol's cells */
+      long sum;
+
+      Totals() {
+        Arrays.fill(productSums, BigInteger.ZERO);
+      }
+    }
+  }
+
+  /**
+   * Mutable schematic that keeps the part sum and the gear ratio sum up to date on every {@link
+   * #update(int, int, char)}, so both are queried in O(1).
+   *
+   * <p>An edit of a cell can only change:
+   *
+   * <ul>
+   *   <li>whether numbers within the 3x3 window around the cell are parts;
+   *   <li>numbers of the cell's row that run through the window, they can grow, shrink, split or
+   *       merge;
+   *   <li>ratios of '*' around those numbers of the cell's row.
+   * </ul>
+   *
+   * So an update subtracts contributions of these numbers and gears, edits the cell and adds their
+   * contributions back. A number is keyed by {@code row * width + start column} and a gear by
+   * {@code row * width + column}.
+   */
+  private static class SchematicIndex {
+    final int height, width;
+    private final char[][] cells;
+
+    private long partSum, gearRatioSum;
+
+    /** buffers reused by every update */
+    private final LongSet numbers = new LongSet(), gears = new LongSet();
+    private final LongSet gearNumbers = new LongSet();
+
+    public SchematicIndex(char[][] cells) {
+      Schematic schematic = new Schematic(cells);
+
+      this.height = schematic.height;
+      this.width = schematic.width;
+      this.cells = new char[height][];
+      for (int y = 0; y < height; y++) {
+        this.cells[y] = cells[y].clone();
+      }
+
+      this.partSum = schematic.getPartSum();
+      this.gearRatioSum = schematic.getGearRatioSum();
+    }
+
+    public long getPartSum() {
+      return partSum;
+    }
+
+    public long getGearRatioSum() {
+      return gearRatioSum;
+    }
+
+    public void update(int row, int col, char ch) {
+      Objects.checkIndex(row, height);
+      Objects.checkIndex(col, width);
+      if (ch == '\n' || ch == '\r') {
+        throw new IllegalArgumentException("A cell can't be a line break");
+      }
+      if (cells[row][col] == ch) {
+        return;
+      }
+
+      collectNumbersAround(row, col, numbers);
+      collectGearsAround(row, col, gears);
+      for (int i = 0; i < numbers.size(); i++) {
+        partSum -= getPartValue(numbers.get(i));
+      }
+      for (int i = 0; i < gears.size(); i++) {
+        gearRatioSum -= getGearRatio(gears.get(i));
+      }
+
+      cells[row][col] = ch;
+
+      collectNumbersAround(row, col, numbers);
+      collectGearsAround(row, col, gears);
+      for (int i = 0; i < numbers.size(); i++) {
+        partSum += getPartValue(numbers.get(i));
+      }
+      for (int i = 0; i < gears.size(); i++) {
+        gearRatioSum += getGearRatio(gears.get(i));
+      }
+    }
+
+    /** Collects keys of the numbers that have a digit within the 3x3 window around the cell. */
+    private void collectNumbersAround(int row, int col, LongSet numbers) {
+      numbers.clear();
+      for (int y = Math.max(0, row - 1); y <= Math.min(height - 1, row + 1); y++) {
+        for (int x = Math.max(0, col - 1); x <= Math.min(width - 1, col + 1); x++) {
+          if (isDigit(cells[y][x])) {
+            numbers.add(getNumberKey(y, x));
+          }
         }
+      }
+    }
 
-        // OPTTIP while trying to get a start and end save passed
-        // chars as a string to immediattely parce in into a an integer.
-        int start = getStartOfNum(adX, lines[adY]);
-        int numId = (y + yDir) * currLine.length + start;
-        if (savedNums.contains(numId)) {
-          continue;
-        } else {
-          savedNums.add(numId);
+    /**
+     * Collects keys of the '*' cells adjacent to the numbers of the {@code row} that run through
+     * the 3x3 window around the cell, including the cell itself.
+     */
+    private void collectGearsAround(int row, int col, LongSet gears) {
+      int start = col, end = col + 1;
+      while (start > 0 && isDigit(cells[row][start - 1])) {
+        start--;
+      }
+      while (end < width && isDigit(cells[row][end])) {
+        end++;
+      }
+
+      gears.clear();
+      for (int y = Math.max(0, row - 1); y <= Math.min(height - 1, row + 1); y++) {
+        for (int x = Math.max(0, start - 1); x <= Math.min(width - 1, end); x++) {
+          if (cells[y][x] == '*') {
+            gears.add((long) y * width + x);
+          }
         }
+      }
+    }
 
-        int end = getEndOfNum(adX, lines[adY]);
+    /** Returns a key of the number with a digit in the cell. */
+    private long getNumberKey(int y, int x) {
+      while (x > 0 && isDigit(cells[y][x - 1])) {
+        x--;
+      }
+      return (long) y * width + x;
+    }
 
-        res.add(Integer.valueOf(String.valueOf(lines[adY], start, end - start)));
+    private int getValue(long number) {
+      int y = (int) (number / width);
+      int value = 0;
+      for (int x = (int) (number % width); x < width && isDigit(cells[y][x]); x++) {
+        value = Math.addExact(Math.multiplyExact(value, 10), cells[y][x] - '0');
+      }
+      return value;
+    }
 
-        if (end - 1 > adX && (adY == 0 || adY == 2)) {
-          continue ForY;
+    /** Returns the value of the number if it's adjacent to a symbol or 0. */
+    private long getPartValue(long number) {
+      int row = (int) (number / width);
+      int start = (int) (number % width);
+      int end = start;
+      while (end < width && isDigit(cells[row][end])) {
+        end++;
+      }
+
+      for (int y = Math.max(0, row - 1); y <= Math.min(height - 1, row + 1); y++) {
+        for (int x = Math.max(0, start - 1); x <= Math.min(width - 1, end); x++) {
+          if (isSymbol(cells[y][x])) {
+            return getValue(number);
+          }
         }
       }
+      return 0;
     }
 
-    return res;
-  }
+    /** Returns the gear ratio if the cell is a '*' with exactly two adjacent numbers or 0. */
+    private long getGearRatio(long gear) {
+      int row = (int) (gear / width);
+      int col = (int) (gear % width);
+      if (cells[row][col] != '*') {
+        return 0;
+      }
 
-  private static boolean isOutOfBounds(char[] currLine, int yDir, int xDir, int adY, int adX) {
-    return (yDir == 0 && xDir == 0)
-        || adY < 0
-        || adX < 0
-        || adY >= currLine.length
-        || adX >= currLine.length;
-  }
+      collectNumbersAround(row, col, gearNumbers);
+      if (gearNumbers.size() != 2) {
+        return 0;
+      }
 
-  private static boolean isDigit(char c) {
-    return c > 47 && c < 58;
+      return (long) getValue(gearNumbers.get(0)) * getValue(gearNumbers.get(1));
+    }
   }
 
-  private static int getStartOfNum(int x, char[] chars) {
-    if (x < 0 || x >= chars.length || chars == null) {
-      throw new IllegalArgumentException();
+  /**
+   * Open addressing set of longs that also keeps them in the order they were added, so they can
+   * be iterated by index without boxing or an iterator.
+   */
+  private static class LongSet {
+    private long[] items = new long[8];
+    private int size;
+
+    /** index of an item + 1 or 0 for an empty slot, kept at most half full */
+    private int[] slots = new int[16];
+
+    /** @return false if the set already contains the {@code item} */
+    public boolean add(long item) {
+      int mask = slots.length - 1;
+      int i = hash(item) & mask;
+      for (; slots[i] != 0; i = (i + 1) & mask) {
+        if (items[slots[i] - 1] == item) {
+          return false;
+        }
+      }
+
+      if (size == items.length) {
+        items = Arrays.copyOf(items, size * 2);
+      }
+      items[size++] = item;
+
+      if (size * 2 > slots.length) {
+        rehash(slots.length * 2);
+      } else {
+        slots[i] = size;
+      }
+      return true;
+    }
+
+    public long get(int index) {
+      Objects.checkIndex(index, size);
+      return items[index];
+    }
+
+    public int size() {
+      return size;
     }
 
-    for (int i = x - 1; i >= 0; i--) {
-      if (!isDigit(chars[i])) {
-        return i + 1;
+    /** Removes all the items keeping the allocated capacity. */
+    public void clear() {
+      Arrays.fill(slots, 0);
+      size = 0;
+    }
+
+    private void rehash(int capacity) {
+      slots = new int[capacity];
+      int mask = capacity - 1;
+      for (int index = 0; index < size; index++) {
+        int i = hash(items[index]) & mask;
+        while (slots[i] != 0) {
+          i = (i + 1) & mask;
+        }
+        slots[i] = index + 1;
       }
     }
 
-    return 0;
+    private static int hash(long item) {
+      long h = item * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+    }
   }
 
-  private static int getEndOfNum(int x, char[] chars) {
-    if (x < 0 || x >= chars.length || chars == null) {
-      throw new IllegalArgumentException();
-    }
+  /** Growable list of ints. */
+  private static class IntList {
+    private int[] items = new int[8];
+    private int size;
 
-    for (int i = x + 1; i < chars.length; i++) {
-      if (!isDigit(chars[i])) {
-        return i;
+    public void add(int item) {
+      if (size == items.length) {
+        items = Arrays.copyOf(items, size * 2);
       }
+      items[size++] = item;
     }
 
-    return chars.length;
+    public int get(int index) {
+      Objects.checkIndex(index, size);
+      return items[index];
+    }
+
+    public int size() {
+      return size;
+    }
+
+    /** Removes all the items keeping the allocated capacity. */
+    public void clear() {
+      size = 0;
+    }
   }
 }
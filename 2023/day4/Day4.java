@@ -1,13 +1,11 @@
 package day4;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 /**
  * <pre>
@@ -104,132 +102,436 @@ public class Day4 {
     System.out.println(getFirstStar(path + "/input1.txt"));
     System.out.println(getSecondStar(path + "/test1.txt"));
     System.out.println(getSecondStar(path + "/input1.txt"));
+    System.out.println(getFirstStar(path + "/test2.txt"));
+    System.out.println(getSecondStar(path + "/test2.txt"));
   }
 
   /*
    *
    * create a point counter
-   * read a line
-   *    save win nums to the hashset
-   *    while iterating over own numbers
-   *    lookup each number in the hash set
-   *    if present
-   *      multiply current point by 2
+   * read a line {@link CardParser}
+   *    count matches of win and own numbers {@link CardMatcher}
+   *    card point is 1 doubled for each match after the first one
    * add card point to point counter
    * repeate
    *
    */
-  private static int getFirstStar(String inputName) throws IOException, FileNotFoundException {
-    try (BufferedReader bf = new BufferedReader(new FileReader(inputName))) {
-
-      int totalPoints = 0;
-      while (bf.ready()) {
-        String[] line = bf.readLine().split("\\s+");
-
-        Set<Integer> winNums = new HashSet<>();
-        int stopPoint = 0;
-        // read win nums
-        for (int i = 2; i < line.length; i++) {
-          String val = line[i];
-          if (val.equals("|")) {
-            stopPoint = i;
-            break;
+  private static BigInteger getFirstStar(String inputName)
+      throws IOException, FileNotFoundException {
+    CardParser parser = new CardParser(Files.readAllBytes(Path.of(inputName)));
+    CardMatcher matcher = new CardMatcher();
+
+    // a card can have hundreds of matches, so its points don't fit into a long
+    BigInteger totalPoints = BigInteger.ZERO;
+    while (parser.next(matcher)) {
+      int cardMatches = matcher.getMatches();
+
+      if (cardMatches > 0) {
+        totalPoints = totalPoints.add(BigInteger.ONE.shiftLeft(cardMatches - 1));
+      }
+    }
+
+    return totalPoints;
+  }
+
+  /*
+   * create a copyCounter
+   * read a line {@link CardParser}
+   * int numOfMatches = matcher.getMatches()
+   *
+   * add the card to the copyCounter {@link CopyCounter#add(int)}
+   * repeate
+   *
+   * return total cards of the copyCounter
+   */
+  private static BigInteger getSecondStar(String inputName)
+      throws IOException, FileNotFoundException {
+    CardParser parser = new CardParser(Files.readAllBytes(Path.of(inputName)));
+    CardMatcher matcher = new CardMatcher();
+    CopyCounter copyCounter = new CopyCounter();
+
+    while (parser.next(matcher)) {
+      copyCounter.add(matcher.getMatches());
+    }
+    return copyCounter.getTotal();
+  }
+
+  /**
+   * Parses cards like "Card  1: 41 48 83 | 83 86  6" from ASCII bytes straight into a {@link
+   * CardMatcher}.
+   *
+   * <p>Cards of a table are usually aligned in columns, so the first card is used to learn where
+   * each number ends and how wide the numbers are. A card with the same length, the ':' in the
+   * same column, only spaces and digits in the number slots and every other byte after the ':'
+   * the same as in the first card (a space or the '|') is decoded straight from these offsets. Any
+   * other card falls back to a general tokenizer.
+   */
+  private static class CardParser {
+    private final byte[] bytes;
+    private int pos;
+
+    /** layout learned from the first card, null if there is none */
+    private int[] slotEnds;
+    private int winningSlots, slotWidth, length, colon, bar;
+    /** the first card, bytes between the slots of other cards must be the same */
+    private byte[] layout;
+
+    public CardParser(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    /**
+     * Parses the next card into the {@code matcher}, that is cleared first.
+     *
+     * @return false if there are no more cards
+     */
+    public boolean next(CardMatcher matcher) {
+      while (pos < bytes.length && (bytes[pos] == '\n' || bytes[pos] == '\r')) {
+        pos++;
+      }
+      if (pos >= bytes.length) {
+        return false;
+      }
+
+      int start = pos;
+      int end = start;
+      while (end < bytes.length && bytes[end] != '\n') {
+        end++;
+      }
+      pos = end;
+      if (bytes[end - 1] == '\r') {
+        end--;
+      }
+
+      matcher.clear();
+      if (slotEnds == null) {
+        learnLayout(start, end);
+      }
+      if (!parseFixed(start, end, matcher)) {
+        matcher.clear();
+        parseTokens(start, end, matcher);
+      }
+      return true;
+    }
+
+    /** @return false if the card doesn't follow the layout, the matcher may be partially filled */
+    private boolean parseFixed(int start, int end, CardMatcher matcher) {
+      if (slotWidth == 0
+          || end - start != length
+          || bytes[start + colon] != ':'
+          || bytes[start + bar] != '|') {
+        return false;
+      }
+
+      int gap = colon + 1;
+      for (int i = 0; i < slotEnds.length; i++) {
+        int slotEnd = start + slotEnds[i];
+        if (bytes[slotEnd - slotWidth - 1] != ' ' || (slotEnd < end && bytes[slotEnd] != ' ')) {
+          return false;
+        }
+        if (!isGapOfLayout(start, gap, slotEnds[i] - slotWidth)) {
+          return false;
+        }
+        gap = slotEnds[i];
+
+        int num = -1;
+        for (int j = slotEnd - slotWidth; j < slotEnd; j++) {
+          byte b = bytes[j];
+          if (b >= '0' && b <= '9') {
+            num = (num == -1 ? 0 : num * 10) + b - '0';
+          } else if (b != ' ' || num != -1) {
+            return false;
           }
-          winNums.add(Integer.parseInt(val));
         }
+        if (num == -1) {
+          return false;
+        }
+
+        if (i < winningSlots) {
+          matcher.addWinning(num);
+        } else {
+          matcher.addOwn(num);
+        }
+      }
+      return isGapOfLayout(start, gap, length);
+    }
+
+    /** Checks that bytes of the card from {@code from} to {@code to} are the same as in layout. */
+    private boolean isGapOfLayout(int start, int from, int to) {
+      for (int j = from; j < to; j++) {
+        if (bytes[start + j] != layout[j]) {
+          return false;
+        }
+      }
+      return true;
+    }
 
-        int cardPoints = 0;
-        // read own numbers
-        for (int i = stopPoint + 1; i < line.length; i++) {
-          int num = Integer.parseInt(line[i]);
-          if (!winNums.contains(num)) {
-            continue;
+    private void parseTokens(int start, int end, CardMatcher matcher) {
+      int i = start;
+      while (i < end && bytes[i] != ':') {
+        i++;
+      }
+      if (i == end) {
+        throw new IllegalArgumentException("Expected ':' in the card at " + start);
+      }
+
+      boolean winning = true;
+      for (i++; i < end; i++) {
+        byte b = bytes[i];
+        if (b == '|') {
+          winning = false;
+        } else if (b >= '0' && b <= '9') {
+          int num = 0;
+          for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+            num = Math.addExact(Math.multiplyExact(num, 10), bytes[i] - '0');
           }
+          i--;
 
-          cardPoints += cardPoints == 0 ? 1 : cardPoints;
+          if (winning) {
+            matcher.addWinning(num);
+          } else {
+            matcher.addOwn(num);
+          }
+        } else if (b != ' ') {
+          throw new IllegalArgumentException("Unexpected '" + (char) b + "' at " + i);
         }
+      }
+    }
 
-        totalPoints += cardPoints;
+    /** Learns offsets of the numbers relative to the start of the line from the card. */
+    private void learnLayout(int start, int end) {
+      slotEnds = new int[0];
+      int[] ends = new int[16];
+      int count = 0;
+      int width = 0;
+
+      colon = -1;
+      bar = -1;
+      for (int i = start; i < end; i++) {
+        byte b = bytes[i];
+        if (b == ':' && colon == -1) {
+          colon = i - start;
+        } else if (b == '|' && colon != -1) {
+          bar = i - start;
+          winningSlots = count;
+        } else if (colon != -1 && b >= '0' && b <= '9') {
+          int tokenStart = i;
+          while (i + 1 < end && bytes[i + 1] >= '0' && bytes[i + 1] <= '9') {
+            i++;
+          }
+
+          if (count == ends.length) {
+            ends = Arrays.copyOf(ends, count * 2);
+          }
+          ends[count++] = i + 1 - start;
+          width = Math.max(width, i + 1 - tokenStart);
+        }
+      }
+
+      // slots need room for a separating space before them, so the first one can't touch ':'
+      if (colon == -1 || bar == -1 || count == 0 || width > 3 || ends[0] - width - 1 <= colon) {
+        return;
       }
 
-      return totalPoints;
+      slotEnds = Arrays.copyOf(ends, count);
+      slotWidth = width;
+      length = end - start;
+      layout = Arrays.copyOfRange(bytes, start, end);
     }
   }
 
-  /*
-   * create cardCounter ArrayList
-   * create a tatalCardsCounter
-   * read a line
-   * int numOfMatches = getNumOfMatches(line) {
-   *    create matchCounter
+  /**
+   * Keeps winning and own numbers of a card as bits of two 256-bit masks, the number of matches is
+   * the number of bits set in both of them. An own number that appears again is also kept in a
+   * list of repeats, so every occurrence of a winning own number counts as a match.
+   */
+  private static class CardMatcher {
+    /** Card numbers must be below this value. */
+    static final int MAX_NUMBER = 256;
+
+    private final long[] winning = new long[MAX_NUMBER / Long.SIZE];
+    private final long[] own = new long[MAX_NUMBER / Long.SIZE];
+    /** own numbers that were already set in {@link #own} */
+    private int[] repeats = new int[8];
+    private int repeatCount;
+
+    public void clear() {
+      Arrays.fill(winning, 0);
+      Arrays.fill(own, 0);
+      repeatCount = 0;
+    }
+
+    public void addWinning(int num) {
+      checkNumber(num);
+      winning[num >>> 6] |= 1L << num;
+    }
+
+    public void addOwn(int num) {
+      checkNumber(num);
+      if ((own[num >>> 6] & 1L << num) != 0) {
+        if (repeatCount == repeats.length) {
+          repeats = Arrays.copyOf(repeats, repeatCount * 2);
+        }
+        repeats[repeatCount++] = num;
+      }
+      own[num >>> 6] |= 1L << num;
+    }
+
+    public int getMatches() {
+      int matches = 0;
+      for (int i = 0; i < winning.length; i++) {
+        matches += Long.bitCount(winning[i] & own[i]);
+      }
+      for (int i = 0; i < repeatCount; i++) {
+        if ((winning[repeats[i] >>> 6] & 1L << repeats[i]) != 0) {
+          matches++;
+        }
+      }
+      return matches;
+    }
+
+    private static void checkNumber(int num) {
+      if (num < 0 || num >= MAX_NUMBER) {
+        throw new IllegalArgumentException("Card number must be from 0 to " + (MAX_NUMBER - 1));
+      }
+    }
+  }
+
+  /**
+   * Counts instances of the cards as they come, one card at a time.
    *
-   *    save win nums to hashset
-   *    while iterating over own numbers
-   *    lookup each number in  a hash set
-   *    if present
-   *      increas matchCounter
-   * }
+   * <p>A card with {@code n} instances and {@code m} matches adds {@code n} copies to each of the
+   * next {@code m} cards. Instead of updating all of them, it's recorded in a difference array as
+   * +n for the next card and -n for the card right after the last won one, and a running sum of
+   * the array gives the copies of the current card. So each card costs O(1) whatever the number of
+   * its matches is.
    *
-   * increase Each Card Counter by cardCounter.getCurrentCardCounter
-   * starting from the next card upto numfOfMatches
+   * <p>Only the next {@code matches + 1} cards can have pending entries, so the array is a ring
+   * buffer with a power of two length that grows to fit the largest number of matches, and decks of
+   * any length are counted in memory that depends only on that number.
    *
-   * totalCardsCounter += cardCounter.getCurrentCardCounter
-   * repeate
+   * <p>Counting is done with longs until any value overflows, then the state is converted to
+   * {@link BigInteger} and counting goes on exactly, so totals never wrap around.
    */
-  private static int getSecondStar(String inputName) throws IOException, FileNotFoundException {
-    try (BufferedReader bf = new BufferedReader(new FileReader(inputName))) {
-      List<Integer> cardCounter = new ArrayList<>(2);
-      int totalCardCounter = 0;
-      int lineCounter = 0;
-
-      while (bf.ready()) {
-        String[] line = bf.readLine().split("\\s+");
-
-        // add card to the cardCounter if it wasn't added
-        if (cardCounter.size() <= lineCounter) {
-          cardCounter.add(1);
-        }
+  private static class CopyCounter {
+    private long[] diff = new long[16];
 
-        int cardMatches = getCardMatches(line);
-        int currCardCounter = cardCounter.get(lineCounter);
+    /** index of the next card */
+    private long card;
+    /** copies of the next card won by the previous cards */
+    private long copies;
+    private long total;
 
-        for (int i = lineCounter + 1; i <= lineCounter + cardMatches; i++) {
-          if (cardCounter.size() <= i) {
-            cardCounter.add(1);
-          }
-          cardCounter.set(i, cardCounter.get(i) + currCardCounter * 1);
+    /** the same state as above once a long overflows, null before that */
+    private BigInteger[] bigDiff;
+    private BigInteger bigCopies, bigTotal;
+
+    /** Adds the next card of the deck. */
+    public void add(int matches) {
+      if (matches < 0) {
+        throw new IllegalArgumentException("Invalid number of matches: " + matches);
+      }
+      ensureCapacity(matches);
+
+      if (bigDiff == null) {
+        try {
+          addExact(matches);
+          return;
+        } catch (ArithmeticException e) {
+          toBigIntegers();
         }
+      }
+
+      addBig(matches);
+    }
+
+    /** Returns instances of all the added cards. */
+    public BigInteger getTotal() {
+      return bigDiff == null ? BigInteger.valueOf(total) : bigTotal;
+    }
 
-        totalCardCounter += cardCounter.get(lineCounter);
-        lineCounter++;
+    /**
+     * Same as {@link #addBig(int)} with longs, nothing is changed if it throws.
+     *
+     * @throws ArithmeticException if any value overflows
+     */
+    private void addExact(int matches) {
+      int mask = diff.length - 1;
+      int slot = (int) (card & mask);
+      int next = (int) ((card + 1) & mask);
+      int afterLast = (int) ((card + matches + 1) & mask);
+
+      long currCopies = Math.addExact(copies, diff[slot]);
+      long instances = Math.addExact(currCopies, 1);
+      long currTotal = Math.addExact(total, instances);
+      long nextDiff = 0, afterLastDiff = 0;
+      if (matches > 0) {
+        nextDiff = Math.addExact(diff[next], instances);
+        afterLastDiff = Math.subtractExact(diff[afterLast], instances);
+      }
+
+      diff[slot] = 0;
+      if (matches > 0) {
+        diff[next] = nextDiff;
+        diff[afterLast] = afterLastDiff;
       }
-      return totalCardCounter;
+      copies = currCopies;
+      total = currTotal;
+      card++;
     }
-  }
 
-  private static int getCardMatches(String[] line) {
-    Set<Integer> winNums = new HashSet<>();
-    int stopPoint = 0;
-    // read win nums
-    for (int i = 2; i < line.length; i++) {
-      String val = line[i];
-      if (val.equals("|")) {
-        stopPoint = i;
-        break;
+    private void addBig(int matches) {
+      int mask = bigDiff.length - 1;
+      int slot = (int) (card & mask);
+      bigCopies = bigCopies.add(bigDiff[slot]);
+      bigDiff[slot] = BigInteger.ZERO;
+
+      BigInteger instances = bigCopies.add(BigInteger.ONE);
+      if (matches > 0) {
+        int next = (int) ((card + 1) & mask);
+        int afterLast = (int) ((card + matches + 1) & mask);
+        bigDiff[next] = bigDiff[next].add(instances);
+        bigDiff[afterLast] = bigDiff[afterLast].subtract(instances);
       }
-      winNums.add(Integer.parseInt(val));
+
+      bigTotal = bigTotal.add(instances);
+      card++;
     }
 
-    int cardMatches = 0;
-    // read own numbers
-    for (int i = stopPoint + 1; i < line.length; i++) {
-      int num = Integer.parseInt(line[i]);
-      if (!winNums.contains(num)) {
-        continue;
+    /**
+     * Grows the ring so that the card and the one after its last won card don't share a slot.
+     * Pending entries of the next cards are moved to their slots in the new ring.
+     */
+    private void ensureCapacity(int matches) {
+      int length = bigDiff == null ? diff.length : bigDiff.length;
+      if (matches + 2 <= length) {
+        return;
       }
 
-      cardMatches++;
+      int newLength = Integer.highestOneBit(matches + 1) * 2;
+      if (bigDiff == null) {
+        long[] newDiff = new long[newLength];
+        for (long c = card; c < card + length; c++) {
+          newDiff[(int) (c & (newLength - 1))] = diff[(int) (c & (length - 1))];
+        }
+        diff = newDiff;
+      } else {
+        BigInteger[] newDiff = new BigInteger[newLength];
+        Arrays.fill(newDiff, BigInteger.ZERO);
+        for (long c = card; c < card + length; c++) {
+          newDiff[(int) (c & (newLength - 1))] = bigDiff[(int) (c & (length - 1))];
+        }
+        bigDiff = newDiff;
+      }
+    }
+
+    private void toBigIntegers() {
+      bigDiff = new BigInteger[diff.length];
+      for (int i = 0; i < diff.length; i++) {
+        bigDiff[i] = BigInteger.valueOf(diff[i]);
+      }
+      bigCopies = BigInteger.valueOf(copies);
+      bigTotal = BigInteger.valueOf(total);
     }
-    return cardMatches;
   }
 }
@@ -7,6 +7,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  *
@@ -102,13 +104,149 @@ import java.util.Objects;
  */
 public class Day5 {
 
+  /** Number of seeds converted by a single fork-join task of the brute force. */
+  private static final long SEED_CHUNK_SIZE = 1 << 22;
+
+  /**
+   * Solves both stars for the test and the puzzle inputs by default, other modes are picked by the
+   * first argument.
+   *
+   * <pre>
+   *  layered [file] - converts seeds map by map with {@link #getFirstStarLayered(String)}
+   *                   and {@link #getSecondStarLayered(String)}
+   *  brute [file] - converts every seed of the second star with
+   *                 {@link #getSecondStarBruteForce(String)} and checks the answer,
+   *                 seeds of the first star are checked one by one with
+   *                 {@link #getFirstStarPointwise(String)}
+   *  inverse file start length - prints the seed ranges of the second star that are planted
+   *                              at the locations from start to start + length
+   * </pre>
+   */
   public static void main(String[] args) throws IOException {
     String path = "/advent_of_code/2023/day5/";
+    String mode = args.length > 0 ? args[0] : "";
+    String inputName = args.length > 1 ? args[1] : path + "/input1.txt";
+
+    switch (mode) {
+      case "layered":
+        System.out.println(getFirstStarLayered(inputName));
+        System.out.println(getSecondStarLayered(inputName));
+        break;
+      case "brute":
+        long expected = getFirstStar(inputName);
+        long actual = getFirstStarPointwise(inputName);
+        if (expected != actual) {
+          throw new IllegalStateException("Point lookups disagree: " + actual + " != " + expected);
+        }
+        System.out.println(actual);
+
+        expected = getSecondStar(inputName);
+        actual = getSecondStarBruteForce(inputName);
+        if (expected != actual) {
+          throw new IllegalStateException("Brute force disagrees: " + actual + " != " + expected);
+        }
+        System.out.println(actual);
+        break;
+      case "inverse":
+        Almanac almanac = Almanac.of(inputName);
+        SeedIndex index =
+            SeedIndex.of(PiecewiseFunction.compose(almanac.layers), almanac.getSeedRanges());
+        RangeSet seeds = index.getSeeds(Long.parseLong(args[2]), Long.parseLong(args[3]));
+        for (int i = 0; i < seeds.size(); i++) {
+          System.out.println(seeds.starts[i] + " " + (seeds.ends[i] - seeds.starts[i]));
+        }
+        break;
+      default:
+        System.out.println(getFirstStar(path + "/test1.txt"));
+        System.out.println(getFirstStar(path + "/input1.txt"));
+        System.out.println(getSecondStar(path + "/test1.txt"));
+        System.out.println(getSecondStar(path + "/input1.txt"));
+    }
+  }
+
+  /**
+   * Composes all the maps of the almanac into a single {@link PiecewiseFunction} from a seed to a
+   * location and indexes its pieces that contain the seeds by their locations.
+   *
+   * @return the lowest location of the seeds
+   */
+  private static long getFirstStar(String inputName) throws IOException {
+    Almanac almanac = Almanac.of(inputName);
+    PiecewiseFunction seedToLocation = PiecewiseFunction.compose(almanac.layers);
+
+    return SeedIndex.of(seedToLocation, almanac.getSeeds()).getLowestLocation();
+  }
+
+  /**
+   * Same as {@link #getFirstStar(String)}, but seeds come in {start, length} pairs.
+   *
+   * @return the lowest location of the seed ranges
+   */
+  private static long getSecondStar(String inputName) throws IOException {
+    Almanac almanac = Almanac.of(inputName);
+    PiecewiseFunction seedToLocation = PiecewiseFunction.compose(almanac.layers);
 
-    System.out.println(getFirstStar(path + "/test1.txt"));
-    System.out.println(getFirstStar(path + "/input1.txt"));
-    System.out.println(getSecondStar(path + "/test1.txt"));
-    System.out.println(getSecondStar(path + "/input1.txt"));
+    return SeedIndex.of(seedToLocation, almanac.getSeedRanges()).getLowestLocation();
+  }
+
+  /**
+   * Same as {@link #getFirstStar(String)}, but converts each seed on its own with a binary search
+   * over the composed function instead of going through the {@link SeedIndex}.
+   *
+   * @return the lowest location of the seeds
+   */
+  private static long getFirstStarPointwise(String inputName) throws IOException {
+    Almanac almanac = Almanac.of(inputName);
+    PiecewiseFunction seedToLocation = PiecewiseFunction.compose(almanac.layers);
+
+    long min = Long.MAX_VALUE;
+    for (long seed : almanac.seeds) {
+      min = Math.min(min, seedToLocation.apply(seed));
+    }
+    return min;
+  }
+
+  /**
+   * Converts every single seed of the seed ranges through all the maps without any range logic, so
+   * it can be used to verify the other solutions of the second star. Seed ranges are cut into
+   * chunks of {@link #SEED_CHUNK_SIZE} seeds that are converted on the common {@link ForkJoinPool}.
+   * Prints how many seeds per second were converted.
+   *
+   * @return the lowest location of the seed ranges
+   */
+  private static long getSecondStarBruteForce(String inputName) throws IOException {
+    Almanac almanac = Almanac.of(inputName);
+    ConversionTable[] layers = almanac.layers.toArray(new ConversionTable[0]);
+
+    int count = 0;
+    for (int i = 0; i + 1 < almanac.seeds.length; i += 2) {
+      count += (int) ((almanac.seeds[i + 1] + SEED_CHUNK_SIZE - 1) / SEED_CHUNK_SIZE);
+    }
+    long[] chunkStarts = new long[count];
+    long[] chunkEnds = new long[count];
+    long seedCount = 0;
+
+    count = 0;
+    for (int i = 0; i + 1 < almanac.seeds.length; i += 2) {
+      long end = almanac.seeds[i] + almanac.seeds[i + 1];
+      for (long start = almanac.seeds[i]; start < end; start += SEED_CHUNK_SIZE) {
+        chunkStarts[count] = start;
+        chunkEnds[count] = Math.min(end, start + SEED_CHUNK_SIZE);
+        count++;
+      }
+      seedCount += almanac.seeds[i + 1];
+    }
+
+    long start = System.nanoTime();
+    long min =
+        ForkJoinPool.commonPool()
+            .invoke(new SeedScanTask(layers, chunkStarts, chunkEnds, 0, count));
+    long time = System.nanoTime() - start;
+
+    System.out.printf(
+        "%d seeds in %.2f s, %.1f million seeds/s%n",
+        seedCount, time / 1e9, seedCount * 1e3 / Math.max(1, time));
+    return min;
   }
 
   /**
@@ -129,7 +267,7 @@ public class Day5 {
    *
    * @return the smallest value inside of srcValues array
    */
-  private static long getFirstStar(String inputName) throws IOException {
+  private static long getFirstStarLayered(String inputName) throws IOException {
     long[] srcValues = null;
     try (BufferedReader bf = new BufferedReader(new FileReader(inputName))) {
 
@@ -146,12 +284,12 @@ public class Day5 {
 
         } else if (line.matches(".+?map:")) {
 
-          List<Long[]> ranges = new ArrayList<>();
+          List<long[]> ranges = new ArrayList<>();
           while (bf.ready() && !(line = bf.readLine()).isEmpty()) {
             ranges.add(getRange(line));
           }
 
-          updateDestinations(srcValues, ranges);
+          updateDestinations(srcValues, ConversionTable.of(ranges));
         }
       }
     }
@@ -165,7 +303,7 @@ public class Day5 {
    * <pre>
    *  Goes through each line of the file.
    *  If it's the fist line (will look like "seeds:{\\s\\d+\\s\\d+}+")
-   *    split it into a {@link List} of {@link Long} "source ranges of values"
+   *    split it into a {@link RangeSet} of "source ranges of values"
    *    skipping "seeds:" word
    *
    *  If it's a mapping (".+?map:")
@@ -173,11 +311,13 @@ public class Day5 {
    *                                            convertion range start index,
    *                                            length of the convertion range")
    *    to a "ranges" list up to the blank line;
-   *    Use ranges to update the list of the "source range of values"
+   *    Use ranges to convert the "source ranges of values"
    * </pre>
+   *
+   * @return the start of the first range, which is the smallest one
    */
-  private static Long getSecondStar(String inputName) throws IOException {
-    List<Long[]> srcRangesOfValues = null;
+  private static long getSecondStarLayered(String inputName) throws IOException {
+    RangeSet srcRangesOfValues = null;
     try (BufferedReader bf = new BufferedReader(new FileReader(inputName))) {
 
       boolean isFirstLineRead = false;
@@ -189,33 +329,36 @@ public class Day5 {
           isFirstLineRead = true;
 
         } else if (line.matches(".+?map:")) {
-          List<Long[]> ranges = new ArrayList<>();
+          List<long[]> ranges = new ArrayList<>();
           while (bf.ready() && !(line = bf.readLine()).isEmpty()) {
             ranges.add(getRange(line));
           }
 
-          updateDestinations(srcRangesOfValues, ranges);
+          srcRangesOfValues = srcRangesOfValues.convert(ConversionTable.of(ranges));
         }
       }
     }
 
-    return srcRangesOfValues.get(0)[0];
+    return srcRangesOfValues.starts[0];
   }
 
-  private static List<Long[]> getRanges(String line) {
+  private static RangeSet getRanges(String line) {
     Objects.requireNonNull(line);
 
     String[] strRanges = line.split("\\s+");
 
-    List<Long[]> result = new ArrayList<>();
-    for (int i = 1; i < strRanges.length; i += 2) {
-      result.add(new Long[] {Long.parseLong(strRanges[i]), Long.parseLong(strRanges[i + 1])});
+    int size = (strRanges.length - 1) / 2;
+    long[] starts = new long[size];
+    long[] ends = new long[size];
+    for (int i = 0; i < size; i++) {
+      starts[i] = Long.parseLong(strRanges[2 * i + 1]);
+      ends[i] = starts[i] + Long.parseLong(strRanges[2 * i + 2]);
     }
-    return result;
+    return RangeSet.of(starts, ends, size);
   }
 
-  private static void updateDestinations(long[] srcValues, List<Long[]> ranges) {
-    Objects.requireNonNull(ranges);
+  private static void updateDestinations(long[] srcValues, ConversionTable table) {
+    Objects.requireNonNull(table);
 
     int smInd = 0;
     for (int i = 0; i < srcValues.length; i++) {
@@ -223,7 +366,7 @@ public class Day5 {
         throw new IllegalArgumentException();
       }
 
-      srcValues[i] = getDestination(ranges, srcValues[i]);
+      srcValues[i] = table.apply(srcValues[i]);
 
       if (srcValues[i] < srcValues[smInd]) {
         smInd = i;
@@ -235,156 +378,559 @@ public class Day5 {
     srcValues[smInd] = tmp;
   }
 
-  private static void updateDestinations(List<Long[]> rangesOfValues, List<Long[]> ranges) {
-    Objects.requireNonNull(rangesOfValues);
-    Objects.requireNonNull(ranges);
+  private static long[] getRange(String line) {
+    String[] strRange = line.split("\\s+");
+    long[] range = new long[strRange.length];
+    for (int i = 0; i < range.length; i++) {
+      range[i] = Long.parseLong(strRange[i]);
+    }
 
-    List<Long[]> updatedRangesOfValues = new ArrayList<>();
-    int smInd = 0;
+    return range;
+  }
 
-    for (int i = 0; i < rangesOfValues.size(); i++) {
-      Long[] valueRange = rangesOfValues.get(i);
-      List<Long[]> destinations = getDestination(valueRange[0], valueRange[1], ranges);
+  /** Seeds and maps of the almanac in the order they are listed. */
+  private static class Almanac {
+    final long[] seeds;
+    final List<ConversionTable> layers;
 
-      for (Long[] destinationRange : destinations) {
-        updatedRangesOfValues.add(destinationRange);
+    private Almanac(long[] seeds, List<ConversionTable> layers) {
+      this.seeds = seeds;
+      this.layers = layers;
+    }
 
-        if (destinationRange[0] < updatedRangesOfValues.get(0)[0]) {
-          smInd = updatedRangesOfValues.size() - 1;
+    public static Almanac of(String inputName) throws IOException {
+      long[] seeds = null;
+      List<ConversionTable> layers = new ArrayList<>();
+
+      try (BufferedReader bf = new BufferedReader(new FileReader(inputName))) {
+        while (bf.ready()) {
+          String line = bf.readLine();
+          if (seeds == null) {
+            seeds =
+                Arrays.stream(line.split("\\s+"))
+                    .skip(1)
+                    .mapToLong(i -> Long.parseLong((i)))
+                    .toArray();
+
+          } else if (line.matches(".+?map:")) {
+            List<long[]> ranges = new ArrayList<>();
+            while (bf.ready() && !(line = bf.readLine()).isEmpty()) {
+              ranges.add(getRange(line));
+            }
+            layers.add(ConversionTable.of(ranges));
+          }
         }
       }
+
+      if (seeds == null) {
+        throw new IllegalArgumentException("The almanac doesn't list any seeds");
+      }
+      return new Almanac(seeds, layers);
     }
 
-    rangesOfValues.clear();
-    rangesOfValues.addAll(updatedRangesOfValues);
+    /** Returns every seed as a range of one seed. */
+    public RangeSet getSeeds() {
+      long[] starts = seeds.clone();
+      long[] ends = new long[seeds.length];
+      for (int i = 0; i < seeds.length; i++) {
+        ends[i] = seeds[i] + 1;
+      }
+      return RangeSet.of(starts, ends, seeds.length);
+    }
 
-    Long[] tmp = rangesOfValues.get(0);
-    rangesOfValues.set(0, rangesOfValues.get(smInd));
-    rangesOfValues.set(smInd, tmp);
+    /** Returns seeds as {start, length} pairs like in the second star. */
+    public RangeSet getSeedRanges() {
+      int size = seeds.length / 2;
+      long[] starts = new long[size];
+      long[] ends = new long[size];
+      for (int i = 0; i < size; i++) {
+        starts[i] = seeds[2 * i];
+        ends[i] = seeds[2 * i] + seeds[2 * i + 1];
+      }
+      return RangeSet.of(starts, ends, size);
+    }
   }
 
-  private static long getDestination(List<Long[]> ranges, long val) {
-    for (Long[] range : ranges) {
-      if (val >= range[1] && val < range[1] + range[2]) {
-        return val - range[1] + range[0];
+  /**
+   * Convertion ranges of a map sorted by their source start index, so the range that contains a
+   * value is found with a binary search. Each range {@code i} adds {@code deltas[i]} to the values
+   * from {@code starts[i]} to {@code starts[i] + lengths[i]}, other values aren't changed.
+   */
+  private static class ConversionTable {
+    final long[] starts;
+    final long[] lengths;
+    final long[] deltas;
+
+    private ConversionTable(long[] starts, long[] lengths, long[] deltas) {
+      this.starts = starts;
+      this.lengths = lengths;
+      this.deltas = deltas;
+    }
+
+    /**
+     * @param ranges of a map like {destination start, source start, length}
+     * @throws IllegalArgumentException if source ranges overlap
+     */
+    public static ConversionTable of(List<long[]> ranges) {
+      Objects.requireNonNull(ranges);
+
+      for (long[] range : ranges) {
+        if (range.length != 3 || range[0] < 0 || range[1] < 0 || range[2] < 0) {
+          throw new IllegalArgumentException();
+        }
       }
+      long[][] sorted =
+          ranges.stream()
+              .filter(range -> range[2] > 0)
+              .sorted((a, b) -> Long.compare(a[1], b[1]))
+              .toArray(long[][]::new);
+
+      long[] starts = new long[sorted.length];
+      long[] lengths = new long[sorted.length];
+      long[] deltas = new long[sorted.length];
+      for (int i = 0; i < sorted.length; i++) {
+        if (i > 0 && sorted[i][1] < starts[i - 1] + lengths[i - 1]) {
+          throw new IllegalArgumentException("Source ranges of the map overlap");
+        }
+        starts[i] = sorted[i][1];
+        lengths[i] = sorted[i][2];
+        deltas[i] = sorted[i][0] - sorted[i][1];
+      }
+
+      return new ConversionTable(starts, lengths, deltas);
+    }
+
+    public long apply(long value) {
+      int i = indexOf(value);
+      return i >= 0 && value < starts[i] + lengths[i] ? value + deltas[i] : value;
     }
 
-    return val;
+    /** Returns the index of the last range that starts at or before the value, or -1. */
+    int indexOf(long value) {
+      int lo = -1, hi = starts.length - 1;
+      while (lo < hi) {
+        int mid = (lo + hi + 1) >>> 1;
+        if (starts[mid] <= value) {
+          lo = mid;
+        } else {
+          hi = mid - 1;
+        }
+      }
+      return lo;
+    }
+
+    int size() {
+      return starts.length;
+    }
+  }
+
+  /** Finds the lowest location of the seeds in the chunks from {@code lo} to {@code hi}. */
+  private static class SeedScanTask extends RecursiveTask<Long> {
+    private static final long serialVersionUID = 1L;
+
+    private final ConversionTable[] layers;
+    private final long[] chunkStarts, chunkEnds;
+    private final int lo, hi;
+
+    public SeedScanTask(
+        ConversionTable[] layers, long[] chunkStarts, long[] chunkEnds, int lo, int hi) {
+      this.layers = layers;
+      this.chunkStarts = chunkStarts;
+      this.chunkEnds = chunkEnds;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected Long compute() {
+      if (hi - lo > 1) {
+        int mid = (lo + hi) >>> 1;
+        SeedScanTask left = new SeedScanTask(layers, chunkStarts, chunkEnds, lo, mid);
+        left.fork();
+
+        long right = new SeedScanTask(layers, chunkStarts, chunkEnds, mid, hi).compute();
+        return Math.min(right, left.join());
+      }
+
+      if (hi == lo) {
+        return Long.MAX_VALUE;
+      }
+
+      return getMinLocation(chunkStarts[lo], chunkEnds[lo]);
+    }
+
+    /**
+     * Converts seeds one by one. Every map remembers the piece (a convertion range or a gap
+     * between them) its last value fell into, and consecutive seeds mostly stay in the same
+     * pieces, so a binary search is only needed when a value leaves its piece.
+     */
+    private long getMinLocation(long from, long to) {
+      int n = layers.length;
+      // pieces from pieceStarts[k] to pieceEnds[k] are empty until the first lookup
+      long[] pieceStarts = new long[n];
+      long[] pieceEnds = new long[n];
+      long[] pieceDeltas = new long[n];
+
+      long min = Long.MAX_VALUE;
+      for (long seed = from; seed < to; seed++) {
+        long value = seed;
+        for (int k = 0; k < n; k++) {
+          if (value < pieceStarts[k] || value >= pieceEnds[k]) {
+            ConversionTable table = layers[k];
+            int i = table.indexOf(value);
+
+            if (i >= 0 && value < table.starts[i] + table.lengths[i]) {
+              pieceStarts[k] = table.starts[i];
+              pieceEnds[k] = table.starts[i] + table.lengths[i];
+              pieceDeltas[k] = table.deltas[i];
+            } else {
+              pieceStarts[k] = i >= 0 ? table.starts[i] + table.lengths[i] : 0;
+              pieceEnds[k] = i + 1 < table.size() ? table.starts[i + 1] : Long.MAX_VALUE;
+              pieceDeltas[k] = 0;
+            }
+          }
+          value += pieceDeltas[k];
+        }
+        min = Math.min(min, value);
+      }
+      return min;
+    }
   }
 
   /**
-   *
-   *
-   * <pre>
-   *  Returns a list of ranges based on 5 possible cases.
-   *
-   * Goes through all the conversion ranges.
-   * (where the conversion range array looks like
-   * {destination start index, conversion range start index, length})
-   * and checks whether the source range partially or completely overlaps it.
-   * If so,
-   *  a new part of the source range that overlaps will be converted.
-   *  based on the destination start index and added as a return value with its length.
-   *
-   * The other part that doesn't overlap with the conversion range (if present) will
-   * be passed to a recursive call to see if it falls into other conversion ranges.
-   *
-   * vs - source range start index
-   * ve - source range end index
-   * rs - convertion range start index
-   * re - convertion range end index
-   *
-   * ds - destination start index
-   *
-   * Where
-   *  1: rs vs ve re
-   *    source range is inside a destination range.
-   *  Result:
-   *    {ds + vs - rs, ve - vs} vs to ve - source range will be converted
-   *  2: vs rs re ve
-   *    destination range is inside the source range.
-   *  Result:
-   *    {vs, rs - vs},           vs to rs - source range isn't changed
-   *                                        pass to a recusive call
-   *    {ds, re - rs},           rs to re - convertion range
-   *    {re, ve - re}            re to ve - source range isn't changed
-   *                                        pass to a recusive call
-   *  3: rs vs re ve
-   *    left side of the source range will be converted.
-   *  Result:
-   *    {ds + vs - rs, re - vs}, vs to re - conversion range
-   *    {re, ve - re}            re to ve - source range isn't changed
-   *                                        pass to a recusive call
-   *  4: vs rs ve re
-   *    right side of the source range will be converted.
-   *  Result:
-   *    {vs, rs - vs},           vs to rs - source range isn't changed
-   *                                        pass to a recusive call
-   *    {ds, ve - rs}            rs to ve - convertion range
-   *  5: vs ve rs re | rs re vs ve
-   *  Result:
-   *    source and destination ranges don't overlap
-   *    {vs, ve - vs}            vs to ve - source range isn't changed
-   *
-   * </pre>
-   *
-   * @param vs source range start index
-   * @param length of the source range
-   * @param convertionRanges list of destination ranges with a pattern {destination start index,
-   *     convertion range start index, length of the convertion range}
-   * @return {@link List} that contains an array of destination ranges that include start index and
-   *     length
+   * Disjoint ranges of values sorted by their start, where ranges that touch or overlap are merged
+   * into one, so the number of ranges doesn't compound with every map they are converted with.
    */
-  private static List<Long[]> getDestination(long vs, long length, List<Long[]> convertionRanges) {
-    if (vs < 0 || length < 0 || convertionRanges == null) {
-      throw new IllegalArgumentException();
+  private static class RangeSet {
+    /** starts are strictly increasing and every range ends before the next one starts */
+    final long[] starts;
+    /** exclusive */
+    final long[] ends;
+
+    private RangeSet(long[] starts, long[] ends) {
+      this.starts = starts;
+      this.ends = ends;
     }
 
-    long ve = vs + length;
-    for (Long[] range : convertionRanges) {
-      if (range.length != 3 || range[0] < 0 || range[1] < 0 || range[2] < 0) {
-        throw new IllegalArgumentException();
+    /**
+     * Merges the first {@code size} ranges from {@code starts[i]} to {@code ends[i]} skipping empty
+     * ones. Starts and ends are sorted separately and swept together counting the open ranges, so
+     * no range objects are created. Both arrays are reordered.
+     */
+    public static RangeSet of(long[] starts, long[] ends, int size) {
+      int n = 0;
+      for (int i = 0; i < size; i++) {
+        if (starts[i] < 0 || ends[i] < starts[i]) {
+          throw new IllegalArgumentException();
+        }
+        if (starts[i] < ends[i]) {
+          starts[n] = starts[i];
+          ends[n] = ends[i];
+          n++;
+        }
+      }
+      Arrays.sort(starts, 0, n);
+      Arrays.sort(ends, 0, n);
+
+      long[] mergedStarts = new long[n];
+      long[] mergedEnds = new long[n];
+      int merged = 0;
+      int open = 0;
+      for (int i = 0, j = 0; j < n; ) {
+        // a range that starts where another one ends continues it
+        if (i < n && starts[i] <= ends[j]) {
+          if (open++ == 0) {
+            mergedStarts[merged] = starts[i];
+          }
+          i++;
+        } else {
+          if (--open == 0) {
+            mergedEnds[merged++] = ends[j];
+          }
+          j++;
+        }
       }
 
-      long rs = range[1];
-      long re = rs + range[2];
+      return new RangeSet(Arrays.copyOf(mergedStarts, merged), Arrays.copyOf(mergedEnds, merged));
+    }
 
-      if (rs <= vs && ve <= re) { // rs VS VE re
-        return Arrays.asList(new Long[][] {{range[0] + vs - rs, length}}); // VS VE
+    /**
+     * Converts all the ranges with the table in one merge pass over both of them. A range is split
+     * where it crosses a start or an end of a convertion range, the parts inside of convertion
+     * ranges are shifted by their deltas and the rest are kept as they are. Every boundary of the
+     * table splits at most one range, so the result has at most {@code size() + 2 * table.size()}
+     * ranges before they are merged.
+     */
+    public RangeSet convert(ConversionTable table) {
+      int capacity = starts.length + 2 * table.size();
+      long[] resultStarts = new long[capacity];
+      long[] resultEnds = new long[capacity];
+      int size = 0;
+
+      int j = 0;
+      for (int i = 0; i < starts.length; i++) {
+        long start = starts[i];
+        long end = ends[i];
+
+        while (start < end) {
+          while (j < table.size() && table.starts[j] + table.lengths[j] <= start) {
+            j++;
+          }
 
-      } else if (vs <= rs && re <= ve) { // VS rs re VE
-        List<Long[]> l = new ArrayList<>();
-        l.addAll(getDestination(vs, rs - vs, convertionRanges)); // VS rs
-        l.add(new Long[] {range[0], range[2]}); // rs re
-        l.addAll(getDestination(re, ve - re, convertionRanges)); // re VE
+          long partEnd;
+          long delta;
+          if (j < table.size() && table.starts[j] <= start) { // inside of the convertion range
+            partEnd = Math.min(end, table.starts[j] + table.lengths[j]);
+            delta = table.deltas[j];
+          } else { // before the next convertion range
+            partEnd = j < table.size() ? Math.min(end, table.starts[j]) : end;
+            delta = 0;
+          }
 
-        return l;
-      } else if (rs < vs && vs < re && re < ve) { // rs VS re VE
-        List<Long[]> l = new ArrayList<>();
-        l.add(new Long[] {range[0] + (vs - rs), re - vs}); // VS re
-        l.addAll(getDestination(re, ve - re, convertionRanges)); // re VE
+          resultStarts[size] = start + delta;
+          resultEnds[size] = partEnd + delta;
+          size++;
+          start = partEnd;
+        }
+      }
 
-        return l;
-      } else if (vs < rs && ve < re && rs < ve) { // VS rs VE re
-        List<Long[]> l = new ArrayList<>();
+      return of(resultStarts, resultEnds, size);
+    }
 
-        l.addAll(getDestination(vs, rs - vs, convertionRanges)); // VS rs
-        l.add(new Long[] {range[0], ve - rs}); // rs VE
-        return l;
+    int size() {
+      return starts.length;
+    }
+  }
+
+  /**
+   * Inverse of a seed to location function restricted to the planted seeds. Pieces of the function
+   * are cut down to the planted seeds and sorted by the start of their locations, so the seeds of
+   * a location range are found with a binary search followed by a scan of the pieces whose
+   * locations overlap the range.
+   */
+  private static class SeedIndex {
+    /** sorted */
+    final long[] locationStarts;
+    /** exclusive */
+    final long[] locationEnds;
+    /** seed = location - delta */
+    final long[] deltas;
+    /** maxLocationEnds[i] is the largest location end of pieces from 0 to i */
+    final long[] maxLocationEnds;
+
+    private SeedIndex(long[] locationStarts, long[] locationEnds, long[] deltas) {
+      this.locationStarts = locationStarts;
+      this.locationEnds = locationEnds;
+      this.deltas = deltas;
+
+      maxLocationEnds = new long[locationEnds.length];
+      for (int i = 0; i < locationEnds.length; i++) {
+        maxLocationEnds[i] = Math.max(i > 0 ? maxLocationEnds[i - 1] : 0, locationEnds[i]);
+      }
+    }
+
+    public static SeedIndex of(PiecewiseFunction seedToLocation, RangeSet planted) {
+      Objects.requireNonNull(seedToLocation);
+      Objects.requireNonNull(planted);
+
+      // both are sorted by seeds, so the pieces are intersected with the seeds in one pass
+      List<long[]> pieces = new ArrayList<>();
+      int i = 0;
+      for (int j = 0; j < planted.size(); j++) {
+        i = Math.max(i, seedToLocation.indexOf(planted.starts[j]));
+        for (; i < seedToLocation.starts.length; i++) {
+          long start = Math.max(planted.starts[j], seedToLocation.starts[i]);
+          long end = Math.min(planted.ends[j], seedToLocation.getEnd(i));
+          long delta = seedToLocation.deltas[i];
+          pieces.add(new long[] {start + delta, end + delta, delta});
+
+          if (seedToLocation.getEnd(i) >= planted.ends[j]) {
+            break;
+          }
+        }
+      }
+      pieces.sort((a, b) -> Long.compare(a[0], b[0]));
+
+      long[] locationStarts = new long[pieces.size()];
+      long[] locationEnds = new long[pieces.size()];
+      long[] deltas = new long[pieces.size()];
+      for (int k = 0; k < pieces.size(); k++) {
+        locationStarts[k] = pieces.get(k)[0];
+        locationEnds[k] = pieces.get(k)[1];
+        deltas[k] = pieces.get(k)[2];
+      }
+      return new SeedIndex(locationStarts, locationEnds, deltas);
+    }
+
+    /** Returns the planted seeds that end up at the locations from start to start + length. */
+    public RangeSet getSeeds(long start, long length) {
+      if (start < 0 || length < 0) {
+        throw new IllegalArgumentException();
       }
+      long end = start + length;
+
+      // the first piece that may end after the start, pieces before it end at or before it
+      int lo = 0, hi = maxLocationEnds.length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (maxLocationEnds[mid] > start) {
+          hi = mid;
+        } else {
+          lo = mid + 1;
+        }
+      }
+
+      long[] seedStarts = new long[locationStarts.length - lo];
+      long[] seedEnds = new long[locationStarts.length - lo];
+      int size = 0;
+      for (int i = lo; i < locationStarts.length && locationStarts[i] < end; i++) {
+        long from = Math.max(start, locationStarts[i]);
+        long to = Math.min(end, locationEnds[i]);
+        if (from < to) {
+          seedStarts[size] = from - deltas[i];
+          seedEnds[size] = to - deltas[i];
+          size++;
+        }
+      }
+      return RangeSet.of(seedStarts, seedEnds, size);
     }
 
-    return Arrays.asList(new Long[][] {{vs, length}}); // VS VE rs re | rs re VS VE
+    /**
+     * @throws IllegalStateException if no seeds are planted
+     */
+    public long getLowestLocation() {
+      if (locationStarts.length == 0) {
+        throw new IllegalStateException("No seeds are planted");
+      }
+      return locationStarts[0];
+    }
   }
 
-  private static Long[] getRange(String line) {
-    String[] strRange = line.split("\\s+");
-    Long[] range = new Long[strRange.length];
-    for (int i = 0; i < range.length; i++) {
-      range[i] = Long.parseLong(strRange[i]);
+  /**
+   * Function over non-negative longs made of pieces, where every piece {@code i} adds {@code
+   * deltas[i]} to the values from {@code starts[i]} up to the start of the next piece. The last
+   * piece goes on up to {@link Long#MAX_VALUE}.
+   *
+   * <p>A map of the almanac is such a function with the gaps between its ranges filled with pieces
+   * that don't change a value. Maps are composed by splitting pieces of the first one where their
+   * images cross breakpoints of the second one, so the composition of all the maps has at most as
+   * many pieces as all of them together.
+   */
+  private static class PiecewiseFunction {
+    private static final PiecewiseFunction IDENTITY =
+        new PiecewiseFunction(new long[] {0}, new long[] {0});
+
+    /** starts[0] == 0 and starts are strictly increasing */
+    final long[] starts;
+    final long[] deltas;
+
+    private PiecewiseFunction(long[] starts, long[] deltas) {
+      this.starts = starts;
+      this.deltas = deltas;
     }
 
-    return range;
+    public static PiecewiseFunction of(ConversionTable table) {
+      Objects.requireNonNull(table);
+
+      Builder builder = new Builder(2 * table.size() + 1);
+      long cursor = 0;
+      for (int i = 0; i < table.size(); i++) {
+        builder.add(cursor, 0);
+        builder.add(table.starts[i], table.deltas[i]);
+        cursor = table.starts[i] + table.lengths[i];
+      }
+      builder.add(cursor, 0);
+
+      return builder.build();
+    }
+
+    /** Returns a function that applies the {@code tables} one after another. */
+    public static PiecewiseFunction compose(List<ConversionTable> tables) {
+      PiecewiseFunction result = IDENTITY;
+      for (ConversionTable table : tables) {
+        result = result.andThen(of(table));
+      }
+      return result;
+    }
+
+    /** Returns a function that applies this function and then the {@code next} one. */
+    public PiecewiseFunction andThen(PiecewiseFunction next) {
+      Builder builder = new Builder(starts.length + next.starts.length);
+
+      for (int i = 0; i < starts.length; i++) {
+        long start = starts[i];
+        long end = getEnd(i);
+        long delta = deltas[i];
+
+        // split the piece where its image crosses breakpoints of the next function
+        while (start < end) {
+          int j = next.indexOf(start + delta);
+          long nextEnd = j + 1 < next.starts.length ? next.starts[j + 1] - delta : end;
+
+          builder.add(start, delta + next.deltas[j]);
+          start = Math.min(end, nextEnd);
+        }
+      }
+
+      return builder.build();
+    }
+
+    public long apply(long value) {
+      return value + deltas[indexOf(value)];
+    }
+
+    /** Returns the index of the piece that contains the value. */
+    int indexOf(long value) {
+      if (value < 0) {
+        throw new IllegalArgumentException("Value can't be negative");
+      }
+
+      int lo = 0, hi = starts.length - 1;
+      while (lo < hi) {
+        int mid = (lo + hi + 1) >>> 1;
+        if (starts[mid] <= value) {
+          lo = mid;
+        } else {
+          hi = mid - 1;
+        }
+      }
+      return lo;
+    }
+
+    long getEnd(int i) {
+      return i + 1 < starts.length ? starts[i + 1] : Long.MAX_VALUE;
+    }
+
+    /** Collects pieces in order skipping empty ones and merging neighbours with equal deltas. */
+    private static class Builder {
+      private long[] starts, deltas;
+      private int size;
+
+      Builder(int capacity) {
+        starts = new long[Math.max(1, capacity)];
+        deltas = new long[Math.max(1, capacity)];
+      }
+
+      void add(long start, long delta) {
+        if (size > 0 && starts[size - 1] == start) {
+          size--; // the previous piece is empty
+        }
+        if (size > 0 && deltas[size - 1] == delta) {
+          return;
+        }
+
+        if (size == starts.length) {
+          starts = Arrays.copyOf(starts, size * 2);
+          deltas = Arrays.copyOf(deltas, size * 2);
+        }
+        starts[size] = start;
+        deltas[size] = delta;
+        size++;
+      }
+
+      PiecewiseFunction build() {
+        return new PiecewiseFunction(Arrays.copyOf(starts, size), Arrays.copyOf(deltas, size));
+      }
+    }
   }
 }